@@ -0,0 +1,51 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+/**
+ * Shared setup of the benchmark networks
+ */
+final class BenchmarkNetworks
+{
+	private BenchmarkNetworks()
+	{
+	}
+	
+	/**
+	 * Creates a new network with logging reduced to errors.
+	 * Non-zero link delays are simulated rather than waited for, so that
+	 * they exercise the delayed delivery path without measuring sleeps
+	 * @param delayMS Default link delay in milliseconds
+	 * @param scheduling Actor scheduling
+	 * @return New network
+	 */
+	static Network create(int delayMS, Network.Scheduling scheduling)
+	{
+		Log.minSignificance = Log.Significance.Error;
+		return new Network(delayMS, scheduling, delayMS > 0 ? Network.TimeModel.VIRTUAL : Network.TimeModel.REAL);
+	}
+	
+	/**
+	 * Starts the given network, and waits for it to terminate
+	 * @param network Network to run
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	static void run(Network network) throws InterruptedException
+	{
+		network.start();
+		network.awaitTermination();
+	}
+}
@@ -0,0 +1,104 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Broadcast fan-out in a full mesh created via
+ * NetworkBlueprint.createFullMesh().
+ * One actor broadcasts a fixed number of messages to all others, which
+ * consume them. Reports the average time per broadcast
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MeshBroadcastBenchmark
+{
+	private static final int BROADCASTS = 256;
+	
+	@Param({"16", "128", "512"})
+	public int actors;
+	@Param({"0", "5"})
+	public int delayMS;
+	@Param({"POOLED", "THREAD_PER_ACTOR"})
+	public Network.Scheduling scheduling;
+	
+	private Network network;
+	
+	@Setup(Level.Invocation)
+	public void setup()
+	{
+		network = BenchmarkNetworks.create(delayMS, scheduling);
+		NetworkBlueprint
+				.createFullMesh(actors, (i) -> new MeshLogic(i == 0), false)
+				.implementIn(network);
+	}
+	
+	@TearDown(Level.Invocation)
+	public void tearDown()
+	{
+		network.shutdown();
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(BROADCASTS)
+	public void broadcast() throws InterruptedException
+	{
+		BenchmarkNetworks.run(network);
+	}
+	
+	private static class MeshLogic implements ActorLogic
+	{
+		private boolean broadcaster;
+		
+		MeshLogic(boolean broadcaster)
+		{
+			this.broadcaster = broadcaster;
+		}
+
+		@Override
+		public void execute(ActorLogicInterface iface)
+		{
+			if (broadcaster)
+			{
+				broadcaster = false;
+				for (int i = 0; i < BROADCASTS; i++)
+					iface.broadcast(i);
+			}
+			while (iface.tryGetNextMessage() != null)
+			{
+			}
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Round-trip latency between a Ping actor and the Pong actor it spawns.
+ * Reports the average time per round trip
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PingPongBenchmark
+{
+	private static final int ROUND_TRIPS = 10_000;
+	
+	@Param({"0", "5"})
+	public int delayMS;
+	@Param({"POOLED", "THREAD_PER_ACTOR"})
+	public Network.Scheduling scheduling;
+	
+	private Network network;
+	
+	@Setup(Level.Invocation)
+	public void setup()
+	{
+		network = BenchmarkNetworks.create(delayMS, scheduling);
+		network.instantiate(new Ping());
+	}
+	
+	@TearDown(Level.Invocation)
+	public void tearDown()
+	{
+		network.shutdown();
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(ROUND_TRIPS)
+	public void roundTrip() throws InterruptedException
+	{
+		BenchmarkNetworks.run(network);
+	}
+	
+	private static class Ping implements ActorLogic
+	{
+		private ActorLink pong = null;
+
+		@Override
+		public void execute(ActorLogicInterface iface)
+		{
+			if (pong == null)
+			{
+				pong = iface.instantiate(new Pong());
+				pong.sendMessage(0);
+			}
+			Message env;
+			while ((env = iface.tryGetNextMessage()) != null)
+			{
+				int n = (Integer)env.getContent() + 1;
+				if (n < ROUND_TRIPS)
+					pong.sendMessage(n);
+			}
+		}
+	}
+
+	private static class Pong implements ActorLogic
+	{
+		private ActorLink ping = null;
+
+		@Override
+		public void execute(ActorLogicInterface iface)
+		{
+			Message env;
+			while ((env = iface.tryGetNextMessage()) != null)
+			{
+				if (ping == null)
+				{
+					ping = env.getLinkToSender();
+					if (ping == null)
+						ping = iface.connectTo(env.getSender());
+				}
+				ping.sendMessage(env.getContent());
+			}
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Control;
+
+/**
+ * Enqueue and dequeue throughput of the mailbox queues.
+ * The contended group runs three writers against the single reader, as
+ * many senders would deliver to one actor.
+ * A capacity of 0 selects the unbounded BlockingQueue. Its writers back off
+ * while they are more than MAX_RUN_AHEAD items ahead of the reader, so that
+ * the queue does not grow without bound. Bounded queues drop the newest
+ * item when full, so that writers never block
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueueBenchmark
+{
+	private static final Object ITEM = new Object();
+	/**
+	 * Maximum number of items the writers of an unbounded queue may be ahead
+	 * of the reader
+	 */
+	private static final int MAX_RUN_AHEAD = 4096;
+	/**
+	 * Number of items after which writers and reader publish their progress.
+	 * Power of two
+	 */
+	private static final int PUBLISH_INTERVAL = 64;
+	
+	@Param({"0", "4096"})
+	public int capacity;
+	
+	private BlockingQueue<Object> queue;
+	/**
+	 * Items added and taken, published every PUBLISH_INTERVAL items
+	 */
+	private final AtomicLong added = new AtomicLong(), taken = new AtomicLong();
+	/**
+	 * Items taken by the reader. Only accessed by the reader
+	 */
+	private long takenByReader;
+	
+	/**
+	 * Items added by a writer since it last published them
+	 */
+	@State(Scope.Thread)
+	public static class Writer
+	{
+		int unpublished;
+	}
+	
+	@Setup(Level.Iteration)
+	public void setup()
+	{
+		queue = capacity > 0
+				? new BoundedBlockingQueue<>(capacity, Mailbox.OverflowPolicy.DROP_NEWEST, new LongAdder())
+				: new BlockingQueue<>();
+		added.set(0);
+		taken.set(0);
+		takenByReader = 0;
+	}
+	
+	@TearDown(Level.Iteration)
+	public void tearDown()
+	{
+		queue.drain(Integer.MAX_VALUE, (item) -> {});
+	}
+	
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(3)
+	public void enqueue(Writer writer, Control control)
+	{
+		queue.add(ITEM);
+		if (capacity > 0 || ++writer.unpublished < PUBLISH_INTERVAL)
+			return;
+		writer.unpublished = 0;
+		long ahead = added.addAndGet(PUBLISH_INTERVAL);
+		while (ahead - taken.get() > MAX_RUN_AHEAD && !control.stopMeasurement)
+			Thread.yield();
+	}
+	
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(1)
+	public Object dequeue()
+	{
+		Object rs = queue.tryTake();
+		if (rs != null && (++takenByReader & (PUBLISH_INTERVAL - 1)) == 0)
+			taken.lazySet(takenByReader);
+		return rs;
+	}
+	
+	@Benchmark
+	@Group("uncontended")
+	public Object enqueueDequeue()
+	{
+		queue.add(ITEM);
+		return queue.tryTake();
+	}
+}
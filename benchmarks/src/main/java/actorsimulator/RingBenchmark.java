@@ -0,0 +1,112 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Message throughput of a uni-directional ring created via
+ * NetworkBlueprint.createRing().
+ * A number of tokens circulate concurrently until a fixed total of hops
+ * has been made. Reports the average time per hop
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RingBenchmark
+{
+	private static final int HOPS = 1 << 17;
+	
+	@Param({"8", "64", "512"})
+	public int actors;
+	@Param({"1", "64"})
+	public int tokens;
+	@Param({"0", "5"})
+	public int delayMS;
+	@Param({"POOLED", "THREAD_PER_ACTOR"})
+	public Network.Scheduling scheduling;
+	
+	private Network network;
+	
+	@Setup(Level.Invocation)
+	public void setup()
+	{
+		network = BenchmarkNetworks.create(delayMS, scheduling);
+		NetworkBlueprint
+				.createRing(actors, (i) -> new RingLogic(i == 0 ? tokens : 0), false)
+				.implementIn(network);
+	}
+	
+	@TearDown(Level.Invocation)
+	public void tearDown()
+	{
+		network.shutdown();
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(HOPS)
+	public void hop() throws InterruptedException
+	{
+		BenchmarkNetworks.run(network);
+	}
+	
+	private static class RingLogic implements ActorLogic
+	{
+		/**
+		 * Tokens still to inject, each carrying its share of HOPS
+		 */
+		private int inject;
+		private final int hopsPerToken;
+		
+		RingLogic(int inject)
+		{
+			this.inject = inject;
+			hopsPerToken = inject > 0 ? HOPS / inject : 0;
+		}
+
+		@Override
+		public void execute(ActorLogicInterface iface)
+		{
+			ActorLink next = iface.getAnyOutgoing();
+			for (; inject > 0; inject--)
+				next.sendMessage(hopsPerToken);
+			Message env;
+			while ((env = iface.tryGetNextMessage()) != null)
+			{
+				int remaining = (Integer)env.getContent() - 1;
+				if (remaining > 0)
+					next.sendMessage(remaining);
+			}
+		}
+	}
+}
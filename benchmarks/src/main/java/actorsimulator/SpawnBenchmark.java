@@ -0,0 +1,88 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rate at which an actor can spawn new actors via
+ * ActorLogicInterface.instantiate() while the network is running.
+ * Reports the average time per spawned actor
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SpawnBenchmark
+{
+	private static final int SPAWNS = 1000;
+	
+	@Param({"POOLED", "THREAD_PER_ACTOR"})
+	public Network.Scheduling scheduling;
+	
+	private Network network;
+	
+	@Setup(Level.Invocation)
+	public void setup()
+	{
+		network = BenchmarkNetworks.create(0, scheduling);
+		network.instantiate(new Spawner());
+	}
+	
+	@TearDown(Level.Invocation)
+	public void tearDown()
+	{
+		network.shutdown();
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(SPAWNS)
+	public void spawn() throws InterruptedException
+	{
+		BenchmarkNetworks.run(network);
+	}
+	
+	private static class Spawner implements ActorLogic
+	{
+		private boolean done = false;
+
+		@Override
+		public void execute(ActorLogicInterface iface)
+		{
+			if (done)
+				return;
+			done = true;
+			for (int i = 0; i < SPAWNS; i++)
+				iface.instantiate((child) -> {});
+		}
+	}
+}
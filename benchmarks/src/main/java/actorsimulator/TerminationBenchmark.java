@@ -0,0 +1,108 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of termination detection after the last message.
+ * The network is started ahead of measurement, with all actors of a ring
+ * idle except the first, which is held back by a latch. Once released, it
+ * sends a final message to its neighbour and returns. Measures the time
+ * from release until awaitTermination() returns
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TerminationBenchmark
+{
+	@Param({"2", "64", "1024"})
+	public int actors;
+	@Param({"POOLED", "THREAD_PER_ACTOR"})
+	public Network.Scheduling scheduling;
+	
+	private Network network;
+	private CountDownLatch release;
+	
+	@Setup(Level.Invocation)
+	public void setup()
+	{
+		network = BenchmarkNetworks.create(0, scheduling);
+		CountDownLatch r = release = new CountDownLatch(1);
+		NetworkBlueprint
+				.createRing(actors, (i) -> i == 0 ? new Last(r) : (iface) -> iface.tryGetNextMessage(), false)
+				.implementIn(network);
+		network.start();
+	}
+	
+	@TearDown(Level.Invocation)
+	public void tearDown()
+	{
+		network.shutdown();
+	}
+	
+	@Benchmark
+	public void detect() throws InterruptedException
+	{
+		release.countDown();
+		network.awaitTermination();
+	}
+	
+	private static class Last implements ActorLogic
+	{
+		private final CountDownLatch release;
+		private boolean sent = false;
+		
+		Last(CountDownLatch release)
+		{
+			this.release = release;
+		}
+
+		@Override
+		public void execute(ActorLogicInterface iface)
+		{
+			if (sent)
+				return;
+			try
+			{
+				release.await();
+			}
+			catch (InterruptedException ex)
+			{
+				return;
+			}
+			sent = true;
+			iface.getAnyOutgoing().sendMessage(null);
+		}
+	}
+}
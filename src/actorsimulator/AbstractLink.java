@@ -15,21 +15,132 @@
  */
 package actorsimulator;
 
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
 /**
  * Abstract base implementation of ActorLink.
  * Required base class of non-abstract ActorLink implementations.
- * Implements getReverse(), and getDestinationActor().
+ * Implements getReverse(), getDestinationActor(), and the primitive send
+ * methods.
  */
-public abstract class AbstractLink implements ActorLink
+public abstract class AbstractLink implements IntLink, LongLink, DoubleLink
 {
 	private final ActorControl source,destination;
+	private final Network network;
+	/**
+	 * Creation indices of source and destination, as recorded by traces
+	 */
+	private final int sourceIndex, destinationIndex;
 	private ActorLink reverse;
+	/**
+	 * Source actor to take recycled envelopes from, if the destination lets
+	 * the runtime recycle them. Null otherwise
+	 */
+	private final ActorControlImpl envelopeSource;
+	/**
+	 * Latency histograms, created by the destination on first use
+	 */
+	private volatile LinkLatency latency;
+	/**
+	 * Sends left until the next latency sample. Updated without
+	 * synchronization, since an occasionally skewed sample rate is harmless
+	 */
+	private int latencyCountdown = 1;
+	/**
+	 * Sends and deliveries left until the next recorded trace sample.
+	 * Updated by the sending and delivering thread, respectively
+	 */
+	private int traceSendCountdown = 1, traceDeliverCountdown = 1;
+	/**
+	 * Traffic counters. Striped, since actors may send from any thread
+	 */
+	private final LongAdder messagesSent = new LongAdder(), bytesSent = new LongAdder();
 
 	
 	public AbstractLink(ActorControl source, ActorControl destination)
 	{
 		this.destination = destination;
 		this.source = source;
+		network = source.getNetwork();
+		sourceIndex = Network.getCreationIndex(source);
+		destinationIndex = Network.getCreationIndex(destination);
+		envelopeSource = source instanceof ActorControlImpl
+				&& destination instanceof ActorControlImpl
+				&& ((ActorControlImpl)destination).recyclesMessages()
+				? (ActorControlImpl)source : null;
+	}
+	
+	/**
+	 * Fetches an envelope to deliver a message sent along the local link.
+	 * Reuses an envelope recycled by the source actor if the destination
+	 * permits it, and one is available
+	 * @param message Message content
+	 * @param time Delivery time
+	 * @return Envelope. Never null
+	 */
+	Message envelope(Object message, long time)
+	{
+		long now = latencyClock();
+		return envelope(message, time, now, now);
+	}
+	
+	/**
+	 * Fetches an envelope stamped for latency tracking
+	 * @param message Message content
+	 * @param time Delivery time
+	 * @param sentNanos System.nanoTime() at which the message was sent, or 0
+	 * @param deliveredNanos System.nanoTime() at which the message is handed
+	 * to the destination mailbox, or 0
+	 * @return Envelope. Never null
+	 */
+	Message envelope(Object message, long time, long sentNanos, long deliveredNanos)
+	{
+		Message env = envelopeSource != null ? envelopeSource.takeEnvelope() : null;
+		if (env != null)
+			env.reset(this, message, time);
+		else
+			env = new Message(this, message, time);
+		env.sentNanos = sentNanos;
+		env.deliveredNanos = deliveredNanos;
+		return env;
+	}
+	
+	/**
+	 * Fetches the current time to stamp the next message or batch with, if
+	 * it is sampled for latency tracking
+	 * @return System.nanoTime() if sampled, 0 otherwise
+	 */
+	long latencyClock()
+	{
+		int interval = network.getLatencySampleInterval();
+		if (interval == 0 || --latencyCountdown > 0)
+			return 0;
+		latencyCountdown = interval;
+		return System.nanoTime();
+	}
+	
+	/**
+	 * Records the latency of a stamped message taken from the destination
+	 * mailbox.
+	 * Called by the destination actor only
+	 * @param m Dequeued stamped message
+	 */
+	void recordLatency(Message m)
+	{
+		LinkLatency l = latency;
+		if (l == null)
+			latency = l = new LinkLatency(this);
+		l.record(m.sentNanos, m.deliveredNanos, System.nanoTime());
+	}
+	
+	/**
+	 * Fetches the latency histograms of the local link
+	 * @return Histograms or null if no stamped message was received yet
+	 */
+	LinkLatency getLatency()
+	{
+		return latency;
 	}
 	
 	@Override
@@ -54,12 +165,159 @@ public abstract class AbstractLink implements ActorLink
 	}
 	
 	/**
-	 * 
-	 * @return 
+	 * Fetches the local source actor control.
+	 * @return Link source actor control. Never null
+	 */
+	ActorControl getSourceControl()
+	{
+		return source;
+	}
+	
+	/**
+	 * Fetches the creation index of the local source actor
+	 * @return Index as recorded by traces. 0 if unknown
+	 */
+	int getSourceIndex()
+	{
+		return sourceIndex;
+	}
+	
+	/**
+	 * Fetches the creation index of the local destination actor
+	 * @return Index as recorded by traces. 0 if unknown
+	 */
+	int getDestinationIndex()
+	{
+		return destinationIndex;
+	}
+	
+	/**
+	 * Fetches the local virtual time of the source actor
+	 * @return Source actor time in nanoseconds
+	 */
+	long getSourceLocalTime()
+	{
+		return source.getLocalTime();
+	}
+	
+	/**
+	 * Signals that a message was sent along the local link
+	 * @param bytes Payload size of the message
 	 */
-	void signalSend()
+	void signalSend(long bytes)
 	{
 		source.signalMessageSent();
+		countTraffic(1, bytes);
+		Trace t = network.getTrace();
+		if (t != null && --traceSendCountdown <= 0)
+		{
+			traceSendCountdown = t.getSampleInterval();
+			t.record(Trace.SEND, sourceIndex, destinationIndex, 1);
+		}
+	}
+	
+	/**
+	 * Signals that a number of messages was sent along the local link
+	 * @param count Number of messages sent
+	 * @param bytes Total payload size of all messages
+	 */
+	void signalSend(int count, long bytes)
+	{
+		source.signalMessagesSent(count);
+		countTraffic(count, bytes);
+		Trace t = network.getTrace();
+		if (t != null && --traceSendCountdown <= 0)
+		{
+			traceSendCountdown = t.getSampleInterval();
+			t.record(Trace.SEND, sourceIndex, destinationIndex, count);
+		}
+	}
+	
+	/**
+	 * Signals that messages are about to be delivered to the destination
+	 * mailbox
+	 * @param count Number of messages
+	 */
+	void signalDeliver(int count)
+	{
+		Trace t = network.getTrace();
+		if (t != null && --traceDeliverCountdown <= 0)
+		{
+			traceDeliverCountdown = t.getSampleInterval();
+			t.record(Trace.DELIVER, destinationIndex, sourceIndex, count);
+		}
+	}
+	
+	/**
+	 * Signals that messages were sent along the local link, and are
+	 * delivered to the destination mailbox right away
+	 * @param count Number of messages
+	 * @param bytes Total payload size of all messages
+	 */
+	void signalInstantSend(int count, long bytes)
+	{
+		if (count == 1)
+			source.signalMessageSent();
+		else
+			source.signalMessagesSent(count);
+		countTraffic(count, bytes);
+		Trace t = network.getTrace();
+		if (t != null && --traceSendCountdown <= 0)
+		{
+			traceSendCountdown = t.getSampleInterval();
+			t.record(Trace.INSTANT, sourceIndex, destinationIndex, count);
+		}
+	}
+	
+	private void countTraffic(int count, long bytes)
+	{
+		messagesSent.add(count);
+		if (bytes != 0)
+			bytesSent.add(bytes);
+	}
+	
+	/**
+	 * Determines the payload size of a message sent along the local link
+	 * @param message Message content
+	 * @return Size in bytes, as determined by the network's message sizer
+	 */
+	long sizeOf(Object message)
+	{
+		return network.getMessageSizer().applyAsLong(message);
+	}
+	
+	/**
+	 * Determines the total payload size of messages sent along the local link
+	 * @param messages Message contents
+	 * @return Size in bytes, as determined by the network's message sizer
+	 */
+	long sizeOf(Object[] messages)
+	{
+		ToLongFunction<Object> sizer = network.getMessageSizer();
+		long rs = 0;
+		for (Object m : messages)
+			rs += sizer.applyAsLong(m);
+		return rs;
+	}
+	
+	/**
+	 * Fetches the number of messages sent along the local link so far,
+	 * including primitive messages
+	 * @return Message count
+	 */
+	long countMessagesSent()
+	{
+		return messagesSent.sum();
+	}
+	
+	/**
+	 * Fetches the total payload size of all messages sent along the local link
+	 * so far
+	 * @return Size in bytes
+	 */
+	long countBytesSent()
+	{
+		return bytesSent.sum();
 	}
 	
 	public Mailbox getDestinationMailbox()
@@ -87,6 +345,30 @@ public abstract class AbstractLink implements ActorLink
 	}
 	
 	
+	@Override
+	public void sendInt(int value)
+	{
+		sendPrimitive(value);
+	}
+
+	@Override
+	public void sendLong(long value)
+	{
+		sendPrimitive(value);
+	}
+
+	@Override
+	public void sendDouble(double value)
+	{
+		sendPrimitive(Double.doubleToRawLongBits(value));
+	}
+	
+	/**
+	 * Sends a primitive payload along the local link
+	 * @param value Raw payload bits
+	 */
+	abstract void sendPrimitive(long value);
+	
 	/**
 	 * Shuts down any threads running on the local link
 	 */
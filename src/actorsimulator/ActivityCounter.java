@@ -0,0 +1,88 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Global count of outstanding work items, used for termination detection.
+ * Items are active actors and messages that have not been dispatched yet.
+ * Each item is counted by a pair of monotonic striped counters: one
+ * incremented when the item comes into existence, one incremented when it
+ * has been handled.
+ * An item must be created before the item it originates from is handled,
+ * e.g. a message must be counted before its sender is counted passive.
+ */
+class ActivityCounter
+{
+	private final LongAdder created = new LongAdder(),
+							handled = new LongAdder();
+	
+	/**
+	 * Counts a new outstanding item
+	 */
+	public void increment()
+	{
+		created.increment();
+	}
+	
+	/**
+	 * Counts a number of new outstanding items
+	 * @param count Number of items to count
+	 */
+	public void increment(int count)
+	{
+		created.add(count);
+	}
+	
+	/**
+	 * Counts an outstanding item as handled
+	 */
+	public void decrement()
+	{
+		handled.increment();
+	}
+	
+	/**
+	 * Counts a number of outstanding items as handled
+	 * @param count Number of items to count
+	 */
+	public void decrement(int count)
+	{
+		handled.add(count);
+	}
+	
+	/**
+	 * Checks whether no items were outstanding at some point during the
+	 * call.
+	 * Handled items are read before created items. Both are monotonic and
+	 * handled never exceeds created, so equality implies that both were
+	 * equal once the first read completed
+	 * @return True if quiescent
+	 */
+	public boolean isQuiescent()
+	{
+		long h = handled.sum();
+		return created.sum() == h;
+	}
+	
+	@Override
+	public String toString()
+	{
+		long h = handled.sum();
+		return "outstanding="+(created.sum() - h);
+	}
+}
@@ -38,5 +38,25 @@ public interface ActorControl extends Actor, Mailbox, ActorLogicInterface
 	 * Thread safe
 	 */
 	void		signalMessageSent();
+	
+	/**
+	 * Signals that a number of messages was sent by this actor.
+	 * Thread safe
+	 * @param count Number of messages sent
+	 */
+	default void	signalMessagesSent(int count)
+	{
+		for (int i = 0; i < count; i++)
+			signalMessageSent();
+	}
+	
+	/**
+	 * Fetches the local virtual time of this actor.
+	 * Corresponds to the latest delivery time of all messages retrieved by
+	 * the actor so far. Always 0 unless the network uses a virtual time model.
+	 * Should only be queried by the actor's own logic thread
+	 * @return Local virtual time in nanoseconds
+	 */
+	long		getLocalTime();
 
 }
@@ -17,8 +17,13 @@ package actorsimulator;
 
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -28,10 +33,87 @@ import java.util.logging.Logger;
  */
 class ActorControlImpl implements ActorControl
 {
-	private final BlockingQueue<Message> pending = new BlockingQueue<>();
-	private final AtomicInteger	messagesSent = new AtomicInteger();
+	private final BlockingQueue<Message> pending;
+	/**
+	 * Pending primitive payloads. Not subject to the mailbox capacity
+	 */
+	private final PrimitiveQueue primitives = new PrimitiveQueue();
+	/**
+	 * Lets blocking receives return once primitive payloads are pending,
+	 * which they cannot hand out themselves
+	 */
+	private final BooleanSupplier primitivesPending = () -> !primitives.isEmpty();
+	/**
+	 * View lent to the local logic for primitive payloads
+	 */
+	private final PrimitiveMessage primitiveView = new PrimitiveMessage();
+	/**
+	 * Messages sent by, and delivered to the local actor.
+	 * Striped, since links may be written from many threads
+	 */
+	private final LongAdder	messagesSent = new LongAdder(), messagesIn = new LongAdder();
+	/**
+	 * Time spent executing the local logic, while actor timing is enabled
+	 */
+	private final LongAdder activeNanos = new LongAdder();
+	/**
+	 * Start of the active period currently measured, valid if timingSegment
+	 */
+	private long segmentStart;
+	private boolean timingSegment;
 	private final OutgoingLinks outgoingLinks = new OutgoingLinks();
 	private final Network network;
+	/**
+	 * Termination detection counter of the owning network
+	 */
+	private final ActivityCounter activity;
+	/**
+	 * Local virtual time. Only accessed by the local logic
+	 */
+	private long localTime;
+	/**
+	 * Set if the local logic lets the runtime recycle envelopes
+	 */
+	private final boolean recycling;
+	/**
+	 * Envelopes recycled by the local logic, to be reused for messages sent
+	 * by it. Null if not recycling
+	 */
+	private final EnvelopePool envelopes;
+	private static final int ENVELOPE_POOL_CAPACITY = 256;
+	/**
+	 * Envelope most recently lent to the local logic, if recycling.
+	 * Only accessed by the local logic
+	 */
+	private Message lent;
+	/**
+	 * Handlers passed to the running drainMessages() and drainPrimitives()
+	 * calls. Only accessed by the local logic
+	 */
+	private Consumer<? super Message> messageHandler;
+	private Consumer<? super PrimitiveMessage> primitiveHandler;
+	/**
+	 * Reusable sinks passing drained items on to the above handlers
+	 */
+	private final Consumer<Message> drainedMessage = this::dispatchDrained;
+	private final Consumer<PrimitiveMessage> drainedPrimitive =
+			(m) -> primitiveHandler.accept(advanceLocalTime(m));
+	/**
+	 * Flight recorder event of the current activation, if recording.
+	 * Only accessed by the local logic
+	 */
+	private Object activation;
+	/**
+	 * Activations left until the next one recorded in the network trace, and
+	 * whether the current one is recorded. Only accessed by the local logic
+	 */
+	private int traceCountdown = 1;
+	private boolean traceSampled;
+	/**
+	 * Guards actor start.
+	 * Explicit lock rather than monitor to avoid pinning virtual threads
+	 */
+	private final ReentrantLock startLock = new ReentrantLock();
 
 	@Override
 	public ActorLink connectTo(Actor remote)
@@ -85,21 +167,86 @@ class ActorControlImpl implements ActorControl
 	@Override
 	public void broadcast(Object msg)
 	{
-		visitOutgoing((lnk) ->
-		{
-			lnk.sendMessage(msg);
-		});
+		Consumer<ActorLink> send = (lnk) -> lnk.sendMessage(msg);
+		ForkJoinPool pool = getBroadcastPool();
+		if (pool != null)
+			outgoingLinks.visitAllParallel(send, pool, BROADCAST_GRAIN);
+		else
+			outgoingLinks.visitAll(send);
+	}
+	
+	/**
+	 * Minimum number of outgoing links for broadcasts to be split across a
+	 * pool
+	 */
+	private static final int PARALLEL_BROADCAST_THRESHOLD = 1024;
+	/**
+	 * Number of links sent to serially by each parallel broadcast task
+	 */
+	private static final int BROADCAST_GRAIN = 256;
+	
+	/**
+	 * Determines the pool to split the next broadcast across.
+	 * Optimistic execution attributes sends to the executing thread, so
+	 * broadcasts remain serial there
+	 * @return Pool or null if the broadcast should be sent serially
+	 */
+	private ForkJoinPool getBroadcastPool()
+	{
+		if (outgoingLinks.count() < PARALLEL_BROADCAST_THRESHOLD
+			|| network.getTimeModel() == Network.TimeModel.OPTIMISTIC)
+			return null;
+		ForkJoinPool pool = network.getPool();
+		if (pool == null)
+			pool = ForkJoinPool.commonPool();
+		return pool.getParallelism() > 1 ? pool : null;
 	}
 
 	@Override
 	public void signalMessageSent()
 	{
-		messagesSent.incrementAndGet();
+		messagesSent.increment();
+	}
+	
+	@Override
+	public void signalMessagesSent(int count)
+	{
+		messagesSent.add(count);
 	}
 	
 	private static final AtomicInteger counter = new AtomicInteger();
 	private final int myIndex = counter.incrementAndGet();
 	
+	/**
+	 * Affinity group the local actor is executed in, if running in AFFINITY
+	 * scheduling mode. -1 if not yet placed
+	 */
+	private volatile int affinityGroup = -1;
+	
+	int getAffinityGroup()
+	{
+		return affinityGroup;
+	}
+	
+	/**
+	 * Moves the local actor to another affinity group.
+	 * Takes effect the next time the actor is scheduled
+	 * @param group New group
+	 */
+	void setAffinityGroup(int group)
+	{
+		affinityGroup = group;
+	}
+	
+	/**
+	 * Fetches the index of the local actor in order of creation
+	 * @return Creation index
+	 */
+	int getCreationIndex()
+	{
+		return myIndex;
+	}
+	
 	@Override
 	public String toString()
 	{
@@ -113,23 +260,258 @@ class ActorControlImpl implements ActorControl
 	@Override
 	public Message tryGetNextMessage()
 	{
-		return pending.tryTake();
+		releaseLent();
+		return lend(dequeued(advanceLocalTime(wrapper.tryGetNextMessage())));
 	}
 
 	@Override
 	public Message waitGetNextMessage()
 	{
-		return pending.take(network);
+		releaseLent();
+		activityChanged(false);
+		endActiveSegment();
+		try
+		{
+			return lend(dequeued(advanceLocalTime(wrapper.waitGetNextMessage())));
+		}
+		finally
+		{
+			beginActiveSegment();
+			activityChanged(true);
+		}
+	}
+	
+	/**
+	 * Starts measuring a period during which the local logic executes, if
+	 * actor timing is enabled.
+	 * Called by the executing thread only
+	 */
+	private void beginActiveSegment()
+	{
+		timingSegment = network.getMetricsRegistry().isActorTimingEnabled();
+		if (timingSegment)
+			segmentStart = System.nanoTime();
+	}
+	
+	/**
+	 * Adds the period since beginActiveSegment() to the active time, if it
+	 * was measured.
+	 * Called by the executing thread only
+	 */
+	private void endActiveSegment()
+	{
+		if (timingSegment)
+		{
+			activeNanos.add(System.nanoTime() - segmentStart);
+			timingSegment = false;
+		}
+	}
+	
+	/**
+	 * Records an activation change of the local actor in the network trace
+	 * and flight recording, if any
+	 * @param active True if the local logic starts or resumes executing,
+	 * false if it returns or blocks
+	 */
+	private void activityChanged(boolean active)
+	{
+		Trace t = network.getTrace();
+		if (active)
+		{
+			traceSampled = t != null && --traceCountdown <= 0;
+			if (traceSampled)
+			{
+				traceCountdown = t.getSampleInterval();
+				t.record(Trace.ACTIVATE, myIndex, 0, 0);
+			}
+		}
+		else if (traceSampled)
+		{
+			traceSampled = false;
+			if (t != null)
+				t.record(Trace.PASSIVE, myIndex, 0, 0);
+		}
+		if (active)
+			activation = FlightEvents.beginActivation(myIndex);
+		else
+		{
+			FlightEvents.endActivation(activation);
+			activation = null;
+		}
+	}
+	
+	/**
+	 * Records the latency of a message taken by the local logic, if stamped,
+	 * and reports it to the flight recorder
+	 * @param m Taken message. May be null
+	 * @return m
+	 */
+	private Message dequeued(Message m)
+	{
+		if (m != null && m.deliveredNanos != 0)
+			m.getVia().recordLatency(m);
+		FlightEvents.dequeued(myIndex, m);
+		return m;
+	}
+	
+	@Override
+	public int drainMessages(int max, Consumer<? super Message> handler)
+	{
+		releaseLent();
+		Consumer<? super Message> outer = messageHandler;
+		messageHandler = handler;
+		try
+		{
+			return wrapper.drainMessages(max, drainedMessage);
+		}
+		finally
+		{
+			messageHandler = outer;
+		}
+	}
+	
+	/**
+	 * Passes a drained message on to the handler of the running
+	 * drainMessages() call
+	 * @param m Drained message
+	 */
+	private void dispatchDrained(Message m)
+	{
+		messageHandler.accept(dequeued(advanceLocalTime(m)));
+		if (recycling)
+			recycle(m);
+	}
+	
+	/**
+	 * Remembers a message lent to the local logic, if recycling
+	 * @param m Message to lend. May be null
+	 * @return m
+	 */
+	private Message lend(Message m)
+	{
+		if (recycling)
+			lent = m;
+		return m;
+	}
+	
+	/**
+	 * Recycles the message most recently lent to the local logic, if any
+	 */
+	private void releaseLent()
+	{
+		if (lent != null)
+		{
+			recycle(lent);
+			lent = null;
+		}
+	}
+	
+	/**
+	 * Returns an expired envelope to the local pool, if it was created by a
+	 * link
+	 * @param m Envelope no longer used by the local logic
+	 */
+	private void recycle(Message m)
+	{
+		if (m.isRecyclable())
+		{
+			m.reset(null, null, 0);
+			envelopes.offer(m);
+		}
+	}
+	
+	/**
+	 * Takes an envelope recycled by the local logic.
+	 * Called by links sending on behalf of the local actor, from any thread
+	 * @return Recycled envelope, or null if none is available
+	 */
+	Message takeEnvelope()
+	{
+		return envelopes != null ? envelopes.poll() : null;
+	}
+	
+	/**
+	 * Checks whether links to this actor should recycle envelopes
+	 * @return True if the local logic is a RecyclingActorLogic, and
+	 * envelopes are not retained by the time model
+	 */
+	boolean recyclesMessages()
+	{
+		return recycling;
+	}
+	
+	/**
+	 * Checks whether delivering to the local mailbox may block the
+	 * delivering thread
+	 * @return True if the mailbox is bounded with BLOCK overflow policy
+	 */
+	boolean blocksWhenFull()
+	{
+		return pending instanceof BoundedBlockingQueue
+				&& ((BoundedBlockingQueue<Message>)pending).getPolicy() == Mailbox.OverflowPolicy.BLOCK;
+	}
+	
+	private Message advanceLocalTime(Message m)
+	{
+		if (m != null && m.getTime() > localTime)
+			localTime = m.getTime();
+		return m;
+	}
+	
+	private PrimitiveMessage advanceLocalTime(PrimitiveMessage m)
+	{
+		if (m != null && m.getTime() > localTime)
+			localTime = m.getTime();
+		return m;
+	}
+	
+	@Override
+	public PrimitiveMessage tryGetNextPrimitive()
+	{
+		return advanceLocalTime(wrapper.tryGetNextPrimitive());
+	}
+	
+	@Override
+	public int drainPrimitives(int max, Consumer<? super PrimitiveMessage> handler)
+	{
+		Consumer<? super PrimitiveMessage> outer = primitiveHandler;
+		primitiveHandler = handler;
+		try
+		{
+			return wrapper.drainPrimitives(max, drainedPrimitive);
+		}
+		finally
+		{
+			primitiveHandler = outer;
+		}
+	}
+	
+	@Override
+	public long getLocalTime()
+	{
+		return localTime;
+	}
+	
+	/**
+	 * Overrides the local virtual time.
+	 * Used by optimistic execution to position the actor at the executed
+	 * or restored event
+	 * @param time New local time in nanoseconds
+	 */
+	void setLocalTime(long time)
+	{
+		localTime = time;
 	}
 
 	
 	@Override
 	public ActorLink instantiate(ActorLogic logic)
 	{
+		if (network.getTimeModel() == Network.TimeModel.OPTIMISTIC)
+			throw new UnsupportedOperationException("Actors cannot be instantiated during optimistic execution");
+		//network.instantiate() already starts the new actor if the network is running
 		ActorControl ac = network.instantiate(logic);
-		ActorLink rs = network.link(this,ac);
-		ac.start();
-		return rs;
+		return network.link(this,ac);
 	}
 
 
@@ -138,7 +520,7 @@ class ActorControlImpl implements ActorControl
 	{
 		pending.quit();
 		wrapper.quit();
-		Log.println(Log.Significance.MinorNetworkEvent, this+": Shut down");
+		Log.println(Log.Significance.MinorNetworkEvent, "{}: Shut down", this);
 		
 	}
 
@@ -146,14 +528,64 @@ class ActorControlImpl implements ActorControl
 	
 	
 	@Override
-	public synchronized void receive(Message ev)
+	public void receive(Message ev)
+	{
+		wrapper.receive(ev);
+		messagesIn.increment();
+		FlightEvents.enqueued(myIndex, ev, 1);
+	}
+	
+	@Override
+	public void receiveAll(Message[] evs)
+	{
+		wrapper.receiveAll(evs);
+		messagesIn.add(evs.length);
+		if (evs.length > 0)
+			FlightEvents.enqueued(myIndex, evs[0], evs.length);
+	}
+	
+	@Override
+	public void receivePrimitive(AbstractLink via, long value, long time)
+	{
+		wrapper.receivePrimitive(via, value, time);
+		messagesIn.increment();
+		FlightEvents.enqueued(myIndex, via.getSourceActor(), 1);
+	}
+	
+	/**
+	 * Retrieves the number of messages delivered to the local mailbox
+	 * @return Delivered message count
+	 */
+	long countMessagesIn()
+	{
+		return messagesIn.sum();
+	}
+	
+	/**
+	 * Estimates the number of messages delivered but not yet taken by the
+	 * local logic
+	 * @return Mailbox depth
+	 */
+	long getMailboxDepth()
+	{
+		long taken = wrapper.countReceivedMessages();
+		return Math.max(0, messagesIn.sum() - taken);
+	}
+	
+	/**
+	 * Captures the current metrics of the local actor
+	 * @return Metrics snapshot
+	 */
+	NetworkMetricsMXBean.ActorMetrics getMetrics()
 	{
-		pending.add(ev);
+		return new NetworkMetricsMXBean.ActorMetrics(toString(), getThreadStatus().name(),
+				getMailboxDepth(), messagesIn.sum(), messagesSent.sum(), activeNanos.sum() / 1e6);
 	}
 	
 	@Override
-	public synchronized void start()
+	public void start()
 	{
+		startLock.lock();
 		try
 		{
 			wrapper.start();
@@ -163,12 +595,16 @@ class ActorControlImpl implements ActorControl
 			Log.println(Log.Significance.Error, this+": "+ex);
 			shutdown();
 		}
+		finally
+		{
+			startLock.unlock();
+		}
 	}
 
 	@Override
 	public void log(String msg)
 	{
-		Log.println( Log.Significance.ActorMessage, this+": "+msg);
+		wrapper.log(msg);
 	}
 
 	@Override
@@ -177,18 +613,246 @@ class ActorControlImpl implements ActorControl
 		return network;
 	}
 
-	private class LogicWrapper implements Runnable
+	/**
+	 * Common base of actor logic executors.
+	 * Determines how and on which thread the local actor logic is executed
+	 */
+	private abstract class LogicWrapper
 	{
-
 		public volatile boolean quit = false;
-		private final ActorLogic logic;
+		protected final ActorLogic logic;
 		public volatile boolean isActive = false;
+		/**
+		 * Sinks of the running drains, and the number of items passed to them
+		 */
+		private Consumer<? super Message> messageSink;
+		private Consumer<? super PrimitiveMessage> primitiveSink;
+		private int drained;
+		private final Consumer<Message> countMessage = (m) ->
+		{
+			drained++;
+			messageSink.accept(m);
+		};
+		private final Consumer<PrimitiveMessage> countPrimitive = (m) ->
+		{
+			drained++;
+			primitiveSink.accept(m);
+		};
+		
+		protected LogicWrapper(ActorLogic logic)
+		{
+			this.logic = logic;
+		}
+		
+		/**
+		 * Executes the local logic once, catching any exceptions
+		 */
+		protected void executeLogic()
+		{
+			activityChanged(true);
+			beginActiveSegment();
+			try
+			{
+				logic.execute(ActorControlImpl.this);
+			}
+			catch (BlockingQueue.Quit q)
+			{
+				quit = true;
+				//all good
+			}
+			catch (Exception ex)
+			{
+				//what are we supposed to do now...?
+				Log.println(Log.Significance.Error, this+": "+ex);
+			}
+			releaseLent();
+			endActiveSegment();
+			activityChanged(false);
+		}
+		
+		@Override
+		public String toString()
+		{
+			return ActorControlImpl.this.toString();
+		}
+		
+		/**
+		 * Waits for the next message on behalf of the local logic
+		 * @return Next message, or null if primitive payloads are pending
+		 */
+		public Message waitGetNextMessage()
+		{
+			Message rs = pending.take(network, primitivesPending);
+			if (rs != null)
+				activity.decrement();
+			return rs;
+		}
+		
+		/**
+		 * Fetches the next message on behalf of the local logic, if any
+		 * @return Next message or null
+		 */
+		public Message tryGetNextMessage()
+		{
+			Message rs = pending.tryTake();
+			if (rs != null)
+				activity.decrement();
+			return rs;
+		}
+		
+		/**
+		 * Fetches up to the given number of messages on behalf of the local
+		 * logic
+		 * @param max Maximum number of messages to fetch
+		 * @param handler Handler to receive each fetched message
+		 * @return Number of fetched messages
+		 */
+		public int drainMessages(int max, Consumer<? super Message> handler)
+		{
+			Consumer<? super Message> outerSink = messageSink;
+			int outerDrained = drained;
+			messageSink = handler;
+			drained = 0;
+			try
+			{
+				pending.drain(max, countMessage);
+				return drained;
+			}
+			finally
+			{
+				if (drained > 0)
+					activity.decrement(drained);
+				messageSink = outerSink;
+				drained = outerDrained;
+			}
+		}
+		
+		/**
+		 * Receives a message sent to the local actor
+		 * @param ev Message to receive
+		 */
+		public void receive(Message ev)
+		{
+			activity.increment();
+			pending.add(ev);
+			signalMessageReceived();
+		}
+		
+		/**
+		 * Fetches the next primitive payload on behalf of the local logic,
+		 * if any
+		 * @return Payload view or null
+		 */
+		public PrimitiveMessage tryGetNextPrimitive()
+		{
+			if (!primitives.poll(primitiveView))
+				return null;
+			activity.decrement();
+			return primitiveView;
+		}
+		
+		/**
+		 * Fetches up to the given number of primitive payloads on behalf of
+		 * the local logic
+		 * @param max Maximum number of payloads to fetch
+		 * @param handler Handler to receive each fetched payload
+		 * @return Number of fetched payloads
+		 */
+		public int drainPrimitives(int max, Consumer<? super PrimitiveMessage> handler)
+		{
+			Consumer<? super PrimitiveMessage> outerSink = primitiveSink;
+			int outerDrained = drained;
+			primitiveSink = handler;
+			drained = 0;
+			try
+			{
+				primitives.drain(max, primitiveView, countPrimitive);
+				return drained;
+			}
+			finally
+			{
+				if (drained > 0)
+					activity.decrement(drained);
+				primitiveSink = outerSink;
+				drained = outerDrained;
+			}
+		}
+		
+		/**
+		 * Receives a primitive payload sent to the local actor
+		 * @param via Link the payload was sent along
+		 * @param value Raw payload bits
+		 * @param time Delivery time
+		 */
+		public void receivePrimitive(AbstractLink via, long value, long time)
+		{
+			activity.increment();
+			primitives.add(via, value, time);
+			pending.notifyReader();
+			signalMessageReceived();
+		}
+		
+		/**
+		 * Receives a batch of messages sent to the local actor
+		 * @param evs Messages to receive
+		 */
+		public void receiveAll(Message[] evs)
+		{
+			if (evs.length == 0)
+				return;
+			activity.increment(evs.length);
+			pending.addAll(evs);
+			signalMessageReceived();
+		}
+		
+		/**
+		 * Signals that a new message has been added to the local queue
+		 */
+		public void signalMessageReceived()
+		{}
+		
+		/**
+		 * Checks whether the local logic is currently executing
+		 * @return True if active
+		 */
+		public boolean isActive()
+		{
+			return isActive;
+		}
+		
+		/**
+		 * Retrieves the number of messages taken by the local logic
+		 * @return Dispatched message count
+		 */
+		public int countReceivedMessages()
+		{
+			return pending.countDispatchesMessages() + primitives.countDispatched();
+		}
+		
+		/**
+		 * Writes a message to the execution log on behalf of the local logic
+		 * @param msg Message to log
+		 */
+		public void log(String msg)
+		{
+			Log.println(Log.Significance.ActorMessage, "{}: {}", ActorControlImpl.this, msg);
+		}
+
+		public abstract void start() throws InterruptedException, BrokenBarrierException;
+		public abstract void quit();
+	}
+	
+	/**
+	 * Executes the local logic on a dedicated (platform or virtual) thread
+	 */
+	private class ThreadLogicWrapper extends LogicWrapper implements Runnable
+	{
 		private final CyclicBarrier firstActivationCheck = new CyclicBarrier(2);
 		Thread thread = null;
 		
-		private LogicWrapper(ActorLogic logic)
+		private ThreadLogicWrapper(ActorLogic logic)
 		{
-			this.logic = logic;
+			super(logic);
 		}
 		
 		@Override
@@ -198,30 +862,26 @@ class ActorControlImpl implements ActorControl
 			while (!quit)
 			{
 				isActive = true;
-				try
+				if (first)
 				{
-					if (first)
+					try
 					{
 						firstActivationCheck.await();
-						first = false;
 					}
-					logic.execute(ActorControlImpl.this);
-				}
-				catch (BlockingQueue.Quit | InterruptedException | BrokenBarrierException q)
-				{
-					quit = true;
-					//all good
-				}
-				catch (Exception ex)
-				{
-					//what are we supposed to do now...?
-					Log.println(Log.Significance.Error, this+": "+ex);
+					catch (InterruptedException | BrokenBarrierException q)
+					{
+						quit = true;
+					}
+					first = false;
 				}
+				if (!quit)
+					executeLogic();
 				isActive = false;
+				activity.decrement();
 				
 				network.triggerTerminationCheck();
 				
-				while (pending.isEmpty() && !quit)
+				while (pending.isEmpty() && primitives.isEmpty() && !quit)
 				{
 					try
 					{
@@ -233,22 +893,21 @@ class ActorControlImpl implements ActorControl
 							Log.println(Log.Significance.Error, this+": "+ ex);
 					}
 				}
+				if (!quit)
+					activity.increment();
 			}
 		}
 		
 		@Override
-		public String toString()
-		{
-			return ActorControlImpl.this.toString();
-		}
-
 		public void start() throws InterruptedException, BrokenBarrierException
 		{
-			thread = new Thread(this);
+			thread = network.newActorThread(this);
+			activity.increment();
 			thread.start();
 			firstActivationCheck.await();
 		}
 
+		@Override
 		public void quit()
 		{
 			quit = true;
@@ -264,48 +923,336 @@ class ActorControlImpl implements ActorControl
 
 	}
 	
+	/**
+	 * Executes the local logic as a task on the network's shared pool, or
+	 * the worker of its affinity group.
+	 * The actor is scheduled whenever messages arrive while it is not already
+	 * scheduled, and gives its worker back when ActorLogic.execute() returns.
+	 */
+	private class PooledLogicWrapper extends LogicWrapper implements Runnable
+	{
+		private final AtomicBoolean scheduled = new AtomicBoolean(false);
+		private ForkJoinPool pool = null;
+		/**
+		 * Scheduler choosing the worker per execution. Null unless running
+		 * in AFFINITY scheduling mode
+		 */
+		private AffinityScheduler affinity = null;
+		/**
+		 * Messages received before start() are left for the initial execution
+		 */
+		private volatile boolean started = false;
+
+		private PooledLogicWrapper(ActorLogic logic)
+		{
+			super(logic);
+		}
+		
+		@Override
+		public void run()
+		{
+			if (!quit)
+			{
+				isActive = true;
+				executeLogic();
+				isActive = false;
+			}
+			scheduled.set(false);
+			activity.decrement();
+			network.triggerTerminationCheck();
+			if (!pending.isEmpty() || !primitives.isEmpty())
+				schedule();
+		}
+		
+		private void schedule()
+		{
+			if (started && !quit && scheduled.compareAndSet(false, true))
+			{
+				activity.increment();
+				(affinity != null ? affinity.getWorker(ActorControlImpl.this) : pool).execute(this);
+			}
+		}
+
+		@Override
+		public void signalMessageReceived()
+		{
+			schedule();
+		}
+		
+		/**
+		 * Blocks the current worker via the pool's managed blocking facility,
+		 * allowing the pool to compensate with a spare thread while waiting.
+		 */
+		@Override
+		public Message waitGetNextMessage()
+		{
+			MessageBlocker blocker = new MessageBlocker();
+			try
+			{
+				ForkJoinPool.managedBlock(blocker);
+			}
+			catch (InterruptedException ex)
+			{
+				throw new BlockingQueue.Quit();
+			}
+			if (blocker.message != null)
+				activity.decrement();
+			return blocker.message;
+		}
+		
+		@Override
+		public void start()
+		{
+			pool = network.getPool();
+			affinity = network.getAffinityScheduler();
+			isActive = true;
+			started = true;
+			schedule();
+		}
+
+		@Override
+		public void quit()
+		{
+			quit = true;
+		}
+	}
+	
+	/**
+	 * Executes the local logic as logical process of the network's optimistic
+	 * Time Warp engine.
+	 * Each message is handled by exactly one (possibly repeated) execution.
+	 * Log output is deferred until the execution is committed
+	 */
+	private class TimeWarpLogicWrapper extends LogicWrapper
+	{
+		private final TimeWarp.Process process;
+		
+		private TimeWarpLogicWrapper(ActorLogic logic)
+		{
+			super(logic);
+			if (!(logic instanceof CheckpointableActorLogic))
+				throw new IllegalArgumentException("Optimistic execution requires CheckpointableActorLogic: "+logic);
+			process = network.getTimeWarp().register(ActorControlImpl.this, (CheckpointableActorLogic)logic);
+		}
+
+		@Override
+		public Message tryGetNextMessage()
+		{
+			return process.takeCurrentMessage();
+		}
+		
+		@Override
+		public Message waitGetNextMessage()
+		{
+			throw new UnsupportedOperationException("Blocking receive is not supported during optimistic execution");
+		}
+
+		@Override
+		public void receive(Message ev)
+		{
+			process.receive(ev);
+		}
+		
+		@Override
+		public void receiveAll(Message[] evs)
+		{
+			for (Message ev : evs)
+				process.receive(ev);
+		}
+		
+		@Override
+		public void receivePrimitive(AbstractLink via, long value, long time)
+		{
+			throw new UnsupportedOperationException("Primitive payloads are not supported during optimistic execution");
+		}
+		
+		@Override
+		public int drainMessages(int max, Consumer<? super Message> handler)
+		{
+			if (max <= 0)
+				return 0;
+			Message m = process.takeCurrentMessage();
+			if (m == null)
+				return 0;
+			handler.accept(m);
+			return 1;
+		}
+
+		@Override
+		public boolean isActive()
+		{
+			return process.isBusy();
+		}
+
+		@Override
+		public int countReceivedMessages()
+		{
+			return process.countReceivedMessages();
+		}
+
+		@Override
+		public void log(String msg)
+		{
+			process.log(msg);
+		}
+		
+		@Override
+		public void start()
+		{
+			process.start();
+		}
+
+		@Override
+		public void quit()
+		{
+			quit = true;
+			process.quit();
+		}
+	}
+	
+	/**
+	 * Executes the local logic once per superstep with pending input, as
+	 * part of the network's bulk synchronous execution
+	 */
+	private class SuperstepLogicWrapper extends LogicWrapper implements Runnable
+	{
+		private final AtomicBoolean scheduled = new AtomicBoolean(false);
+		private final SuperstepScheduler scheduler;
+		
+		private SuperstepLogicWrapper(ActorLogic logic)
+		{
+			super(logic);
+			scheduler = network.getSuperstepScheduler();
+		}
+		
+		@Override
+		public void run()
+		{
+			scheduled.set(false);
+			if (quit)
+				return;
+			isActive = true;
+			executeLogic();
+			isActive = false;
+			if (!pending.isEmpty() || !primitives.isEmpty())
+				schedule();
+		}
+		
+		private void schedule()
+		{
+			if (!quit && scheduled.compareAndSet(false, true))
+				scheduler.activate(this);
+		}
+
+		@Override
+		public void signalMessageReceived()
+		{
+			schedule();
+		}
+		
+		@Override
+		public Message waitGetNextMessage()
+		{
+			throw new UnsupportedOperationException("Blocking receive is not supported during superstep execution");
+		}
+
+		@Override
+		public void start()
+		{
+			schedule();
+		}
+
+		@Override
+		public void quit()
+		{
+			quit = true;
+		}
+	}
+	
+	private class MessageBlocker implements ForkJoinPool.ManagedBlocker
+	{
+		private Message message = null;
+
+		@Override
+		public boolean block()
+		{
+			if (message == null)
+				message = pending.take(network, primitivesPending);
+			return true;
+		}
+
+		@Override
+		public boolean isReleasable()
+		{
+			if (message == null)
+				message = pending.tryTake();
+			return message != null || primitivesPending.getAsBoolean();
+		}
+	}
+	
 	
 	private final LogicWrapper wrapper;
 	
 	public ActorControlImpl(Network network, ActorLogic logic)
+	{
+		this(network, logic, 0, null);
+	}
+	
+	/**
+	 * Constructs a new actor
+	 * @param network Owning network
+	 * @param logic Logic to execute
+	 * @param mailboxCapacity Maximum number of pending messages.
+	 * 0 or less for unbounded
+	 * @param policy Overflow policy to apply if bounded
+	 */
+	public ActorControlImpl(Network network, ActorLogic logic, int mailboxCapacity, Mailbox.OverflowPolicy policy)
 	{
 		this.network = network;
-		wrapper = new LogicWrapper(logic);
+		activity = network.getActivityCounter();
+		if (network.getTimeModel() == Network.TimeModel.SUPERSTEP && mailboxCapacity > 0
+				&& policy == Mailbox.OverflowPolicy.BLOCK)
+			throw new IllegalArgumentException("Blocking mailboxes are not supported during superstep execution");
+		localTime = network.getVirtualTimeNanos();
+		recycling = logic instanceof RecyclingActorLogic
+				&& network.getTimeModel() != Network.TimeModel.OPTIMISTIC;
+		envelopes = recycling ? new EnvelopePool(ENVELOPE_POOL_CAPACITY) : null;
+		pending = mailboxCapacity > 0
+				? new BoundedBlockingQueue<>(mailboxCapacity, policy, network.getOverflowCounter(policy), activity)
+				: new BlockingQueue<>();
+		if (network.getTimeModel() == Network.TimeModel.OPTIMISTIC)
+			wrapper = new TimeWarpLogicWrapper(logic);
+		else if (network.getTimeModel() == Network.TimeModel.SUPERSTEP)
+			wrapper = new SuperstepLogicWrapper(logic);
+		else if (network.getScheduling() == Network.Scheduling.POOLED
+				|| network.getScheduling() == Network.Scheduling.AFFINITY)
+			wrapper = new PooledLogicWrapper(logic);
+		else
+			wrapper = new ThreadLogicWrapper(logic);
 	}
 	
 	
 
 	@Override
-	public synchronized Status getStatus()
+	public Status getStatus()
 	{
 		/*
 		Messages count and thread status may be out of sync.
-		Changes are still consistent for termination checks because:
-			pending.countDispatchesMessages() increments => thread is active
-				or has finished processing message. can see:
-					thread active, message count incremented
-					thread inactive, message count incremented
-					
-			messagesSent increments => thread is active
-				or has become passive AFTER sending
-			neither can be detected incremented before thread is considered
-				active
-			both message receiving and getStatus() are synchronized:
-				no messages can be received between getThreadStatus()
-				and countDispatchesMessages()
+		Only used for introspection. Termination detection relies on the
+		network's ActivityCounter instead
 		*/
 		return new Status(getThreadStatus(), 
-				messagesSent.get(), 
-				pending.countDispatchesMessages());
+				messagesSent.intValue(), 
+				wrapper.countReceivedMessages());
 	}
 	
-	public synchronized ThreadStatus getThreadStatus()
+	public ThreadStatus getThreadStatus()
 	{
 		if (!pending.isNotEmptyOrNotWaiting())
 			return ThreadStatus.PASSIVE_BLOCKED;
-		if (wrapper.isActive)
+		if (wrapper.isActive())
 			return ThreadStatus.ACTIVE;
-		if (!pending.isEmpty())
+		if (!pending.isEmpty() || !primitives.isEmpty())
 			return ThreadStatus.MESSAGES_PENDING;
 		return ThreadStatus.PASSIVE_RETURNED;
 	}
@@ -15,6 +15,7 @@
  */
 package actorsimulator;
 
+import java.util.Collection;
 
 /**
  * Represents a uni-directional link to a remote actor.
@@ -34,6 +35,27 @@ public interface ActorLink
 	 * @param message Message to send. May be null
 	 */
 	void		sendMessage(Object message);
+	/**
+	 * Sends a number of messages along the local link, in order.
+	 * Equivalent to sending each message individually, but may be
+	 * implemented more efficiently.
+	 * @param messages Messages to send. Elements may be null
+	 */
+	default void	sendMessages(Object[] messages)
+	{
+		for (Object message : messages)
+			sendMessage(message);
+	}
+	/**
+	 * Sends a number of messages along the local link, in iteration order.
+	 * Equivalent to sending each message individually, but may be
+	 * implemented more efficiently.
+	 * @param messages Messages to send. Elements may be null
+	 */
+	default void	sendMessages(Collection<?> messages)
+	{
+		sendMessages(messages.toArray());
+	}
 	/**
 	 * Determines if there are no pending messages on the local link
 	 * @return True if no messages are awaiting delivery, false otherwise
@@ -16,6 +16,7 @@
 package actorsimulator;
 
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * Control interface for actor logics.
@@ -39,10 +40,69 @@ public interface ActorLogicInterface
 	 * returns.
 	 * Received messages are in deterministic order only where received from
 	 * the same sender.
-	 * @return Next message. Never null
+	 * Also returns if primitive payloads are pending, so that logics
+	 * receiving primitives can fetch them via tryGetNextPrimitive() or
+	 * drainPrimitives() instead of blocking forever.
+	 * @return Next message. Null only if primitive payloads are pending
 	 */
 	Message		waitGetNextMessage();
 	
+	/**
+	 * Fetches up to the given number of pending messages without blocking,
+	 * and passes them to the given handler in order of reception.
+	 * Equivalent to repeated calls to tryGetNextMessage(), but may move
+	 * many messages per synchronization.
+	 * @param max Maximum number of messages to fetch
+	 * @param handler Handler to receive each fetched message
+	 * @return Number of fetched messages
+	 */
+	default int	drainMessages(int max, Consumer<? super Message> handler)
+	{
+		int n = 0;
+		Message m;
+		while (n < max && (m = tryGetNextMessage()) != null)
+		{
+			n++;
+			handler.accept(m);
+		}
+		return n;
+	}
+	
+	/**
+	 * Tries to fetch the next primitive payload sent via an IntLink,
+	 * LongLink, or DoubleLink.
+	 * Primitive payloads are queued separately from object messages.
+	 * Pending payloads make waitGetNextMessage() return null.
+	 * The returned view is owned by the local actor, and only valid until
+	 * the next primitive payload is fetched, or execute() returns.
+	 * @return Payload view or null if none are pending
+	 */
+	default PrimitiveMessage	tryGetNextPrimitive()
+	{
+		throw new UnsupportedOperationException("Primitive payloads are not supported by "+this);
+	}
+	
+	/**
+	 * Fetches up to the given number of pending primitive payloads without
+	 * blocking, and passes them to the given handler in order of reception.
+	 * The same view instance is passed for each payload, and only valid
+	 * during the respective handler invocation.
+	 * @param max Maximum number of payloads to fetch
+	 * @param handler Handler to receive each fetched payload
+	 * @return Number of fetched payloads
+	 */
+	default int	drainPrimitives(int max, Consumer<? super PrimitiveMessage> handler)
+	{
+		int n = 0;
+		PrimitiveMessage m;
+		while (n < max && (m = tryGetNextPrimitive()) != null)
+		{
+			n++;
+			handler.accept(m);
+		}
+		return n;
+	}
+	
 	/**
 	 * Visits all outgoing actor links.
 	 * @param visitor Visitor to receive all outgoing actor links.
@@ -101,4 +161,54 @@ public interface ActorLogicInterface
 	 */
 	void		log(String msg);
 	
+	/**
+	 * Appends a message built on demand to the execution log.
+	 * The supplier is only invoked if actor messages are currently logged.
+	 * @param msg Supplier of the message to append
+	 */
+	default void	log(Supplier<String> msg)
+	{
+		if (isLogEnabled(Log.Significance.ActorMessage))
+			log(msg.get());
+	}
+	
+	/**
+	 * Appends a message with one parameter to the execution log.
+	 * The first {} in pattern is replaced by the argument, but only if actor
+	 * messages are currently logged.
+	 * @param pattern Message pattern
+	 * @param arg Argument
+	 */
+	default void	log(String pattern, Object arg)
+	{
+		if (isLogEnabled(Log.Significance.ActorMessage))
+			log(Log.format(pattern, arg, null, 1));
+	}
+	
+	/**
+	 * Appends a message with two parameters to the execution log.
+	 * The first two {} in pattern are replaced by the arguments, but only if
+	 * actor messages are currently logged.
+	 * @param pattern Message pattern
+	 * @param arg1 First argument
+	 * @param arg2 Second argument
+	 */
+	default void	log(String pattern, Object arg1, Object arg2)
+	{
+		if (isLogEnabled(Log.Significance.ActorMessage))
+			log(Log.format(pattern, arg1, arg2, 2));
+	}
+	
+	/**
+	 * Checks whether log lines of the given significance are currently
+	 * written.
+	 * Allows logics to skip building messages that would be discarded
+	 * @param v Significance to check
+	 * @return True if enabled
+	 */
+	default boolean	isLogEnabled(Log.Significance v)
+	{
+		return Log.isEnabled(v);
+	}
+	
 }
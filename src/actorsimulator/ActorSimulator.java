@@ -33,6 +33,11 @@ public class ActorSimulator
 	{
 		Network network = new Network(0);		//instant delivery on default links
 		//Network network = new Network(300);	//300ms delay on default links
+		//Network network = new Network(0, Network.Scheduling.POOLED);	//run actors on a shared thread pool
+		//Network network = new Network(0, Network.Scheduling.AFFINITY);	//pooled, linked actors kept on the same worker
+		//Network network = new Network(0, Network.Scheduling.VIRTUAL_THREAD);	//one virtual thread per actor (Java 21+)
+		//Network network = new Network(300, Network.Scheduling.POOLED, Network.TimeModel.VIRTUAL);	//300ms simulated, not waited for
+		//Network network = new Network(0, Network.Scheduling.POOLED, Network.TimeModel.SUPERSTEP);	//bulk synchronous rounds
 
 		//network.instantiate(new Ping());	//dynamically establishes its network
 		
@@ -49,7 +54,7 @@ public class ActorSimulator
 
 		network.start();	//start threads and run the system
 		network.awaitTermination();	//sleep until the network has stopped
-		Log.println(Log.Significance.MajorNetworkEvent, "Termination detected. Shutting down "+network+"...");
+		Log.println(Log.Significance.MajorNetworkEvent, "Termination detected. Shutting down {}...", network);
 		network.shutdown();	//join all threads
 	}
 	
@@ -84,7 +89,7 @@ public class ActorSimulator
 					iface.log("Stopping");
 					return;
 				}
-				iface.log("Pinging "+p.numPongs);
+				iface.log("Pinging {}", p.numPongs);
 				env.getLinkToSender().sendMessage(p);
 			}
 		}
@@ -105,7 +110,7 @@ public class ActorSimulator
 			{
 				PingPong p = (PingPong)env.getContent();
 				p.numPongs ++;
-				iface.log("Ponging "+p.numPongs);
+				iface.log("Ponging {}", p.numPongs);
 				
 				ActorLink lnk = env.getLinkToSender();
 				if (lnk == null)
@@ -132,7 +137,7 @@ public class ActorSimulator
 			while ((env = iface.tryGetNextMessage())!=null)
 			{
 				numHandled++;
-				iface.log("Handled->"+numHandled);
+				iface.log("Handled->{}", numHandled);
 				if (numHandled > 2)
 				{
 					iface.log("Stopping");
@@ -144,7 +149,7 @@ public class ActorSimulator
 				{
 					if (lnk != env2.getSender())
 					{
-						iface.log("Forwarding to "+lnk.getDestinationActor());
+						iface.log("Forwarding to {}", lnk.getDestinationActor());
 						lnk.sendMessage(env2.getContent());
 					}
 				});
@@ -154,7 +159,7 @@ public class ActorSimulator
 				ActorLink lnk = iface.getAnyOutgoing();
 				if (lnk != null)
 				{
-					iface.log("Sending pivot to "+lnk.getDestinationActor());
+					iface.log("Sending pivot to {}", lnk.getDestinationActor());
 					lnk.sendMessage(null);
 					numHandled++;
 				}
@@ -180,7 +185,7 @@ public class ActorSimulator
 				ActorLink lnk = iface.getAnyOutgoing();
 				if (lnk != null)
 				{
-					iface.log("Sending pivot to "+lnk.getDestinationActor());
+					iface.log("Sending pivot to {}", lnk.getDestinationActor());
 					lnk.sendMessage(null);
 					numHandled++;
 				}
@@ -190,7 +195,7 @@ public class ActorSimulator
 			{
 				Message env = iface.waitGetNextMessage();
 				numHandled++;
-				iface.log("Handled->"+numHandled);
+				iface.log("Handled->{}", numHandled);
 				if (numHandled > 2)
 				{
 					iface.log("Stopping");
@@ -202,7 +207,7 @@ public class ActorSimulator
 				{
 					if (lnk != env2.getSender())
 					{
-						iface.log("Forwarding to "+lnk.getDestinationActor());
+						iface.log("Forwarding to {}", lnk.getDestinationActor());
 						lnk.sendMessage(env2.getContent());
 					}
 				});
@@ -0,0 +1,352 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Executes actors of a network in AFFINITY scheduling mode.
+ * Actors are partitioned into affinity groups, one per worker, such that
+ * as few links as possible cross groups. Each group runs on its own
+ * single-worker pool, so actors that exchange messages hand them over on
+ * the same core, and their mailboxes stay in its cache.
+ * The initial partition is grown breadth-first along the link graph when
+ * the network starts. A refinement thread then periodically moves actors
+ * to the group they exchange most messages with, as observed by the link
+ * traffic counters, as long as that group does not grow too large.
+ * Groups are balanced by actor count rather than by load, since the load
+ * observed for actors depends on their placement.
+ * Actors created after the start join the least populated group.
+ */
+final class AffinityScheduler implements Runnable
+{
+	private static final long REFINE_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+	/**
+	 * Fraction by which the number of actors in a group may exceed the
+	 * average before it stops accepting actors
+	 */
+	private static final double IMBALANCE = 0.25;
+	/**
+	 * Fraction by which the traffic to another group must exceed the
+	 * traffic within the current group to move an actor
+	 */
+	private static final double HYSTERESIS = 0.5;
+	
+	private final Network network;
+	private final ForkJoinPool[] workers;
+	private final AtomicInteger[] groupSizes;
+	/**
+	 * Link traffic observed during the last refinement. Only accessed by the
+	 * refinement thread
+	 */
+	private final IdentityHashMap<AbstractLink, Long> lastTraffic = new IdentityHashMap<>();
+	private volatile boolean quit = false;
+	private Thread thread = null;
+	
+	AffinityScheduler(Network network, int groups)
+	{
+		this.network = network;
+		workers = new ForkJoinPool[groups];
+		groupSizes = new AtomicInteger[groups];
+		for (int i = 0; i < groups; i++)
+		{
+			workers[i] = new ForkJoinPool(1, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+			groupSizes[i] = new AtomicInteger();
+		}
+	}
+	
+	@Override
+	public String toString()
+	{
+		return network+": AffinityScheduler";
+	}
+	
+	/**
+	 * Partitions all currently registered actors, and starts refinement.
+	 * Must be called before the actors are started
+	 */
+	synchronized void start()
+	{
+		partition(network.getActorArray(), network.getLinkArray());
+		thread = new Thread(this);
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Stops refinement, and shuts down all workers
+	 */
+	void stop()
+	{
+		Thread t;
+		synchronized (this)
+		{
+			quit = true;
+			t = thread;
+		}
+		if (t != null)
+		{
+			LockSupport.unpark(t);
+			try
+			{
+				t.join();
+			}
+			catch (InterruptedException ex)
+			{
+				Log.println(Log.Significance.Error, this+": "+ex);
+			}
+		}
+		for (ForkJoinPool w : workers)
+			w.shutdownNow();
+		for (ForkJoinPool w : workers)
+		{
+			try
+			{
+				w.awaitTermination(1, TimeUnit.MINUTES);
+			}
+			catch (InterruptedException ex)
+			{
+				Log.println(Log.Significance.Error, this+": "+ex);
+			}
+		}
+	}
+	
+	/**
+	 * Fetches the worker to execute the given actor on.
+	 * Assigns actors not yet placed to the least populated group
+	 * @param actor Actor to execute
+	 * @return Worker pool of the actor's current group
+	 */
+	ForkJoinPool getWorker(ActorControlImpl actor)
+	{
+		int g = actor.getAffinityGroup();
+		if (g < 0)
+		{
+			g = 0;
+			for (int i = 1; i < groupSizes.length; i++)
+				if (groupSizes[i].get() < groupSizes[g].get())
+					g = i;
+			move(actor, g);
+		}
+		return workers[g];
+	}
+	
+	/**
+	 * Counts the worker threads of all groups, including spare threads
+	 * compensating for blocked actors
+	 */
+	int countThreads()
+	{
+		int rs = 0;
+		for (ForkJoinPool w : workers)
+			rs += w.getPoolSize();
+		return rs;
+	}
+	
+	int countActiveThreads()
+	{
+		int rs = 0;
+		for (ForkJoinPool w : workers)
+			rs += w.getActiveThreadCount();
+		return rs;
+	}
+	
+	private void move(ActorControlImpl actor, int group)
+	{
+		int old = actor.getAffinityGroup();
+		if (old == group)
+			return;
+		if (old >= 0)
+			groupSizes[old].decrementAndGet();
+		groupSizes[group].incrementAndGet();
+		actor.setAffinityGroup(group);
+	}
+	
+	/**
+	 * Grows groups of equal size breadth-first along links, so that
+	 * neighbours share a group unless it is full
+	 */
+	private void partition(ActorControl[] actors, AbstractLink[] links)
+	{
+		Graph graph = new Graph(actors, links);
+		int capacity = (graph.size + workers.length - 1) / workers.length;
+		int group = 0, filled = 0, seed = 0;
+		boolean[] visited = new boolean[graph.size];
+		ArrayDeque<Integer> frontier = new ArrayDeque<>();
+		while (true)
+		{
+			if (frontier.isEmpty())
+			{
+				while (seed < graph.size && visited[seed])
+					seed++;
+				if (seed == graph.size)
+					break;
+				visited[seed] = true;
+				frontier.add(seed);
+			}
+			int a = frontier.poll();
+			if (filled == capacity)
+			{
+				group++;
+				filled = 0;
+			}
+			move(graph.actors[a], group);
+			filled++;
+			for (int i = graph.first[a]; i < graph.first[a+1]; i++)
+			{
+				int b = graph.peers[i];
+				if (!visited[b])
+				{
+					visited[b] = true;
+					frontier.add(b);
+				}
+			}
+		}
+	}
+	
+	@Override
+	public void run()
+	{
+		while (!quit)
+		{
+			LockSupport.parkNanos(this, REFINE_NANOS);
+			if (!quit)
+				refine();
+		}
+	}
+	
+	/**
+	 * Moves actors towards the groups they exchanged most messages with since
+	 * the last refinement, as long as those groups have room
+	 */
+	private void refine()
+	{
+		Graph graph = new Graph(network.getActorArray(), network.getLinkArray());
+		long total = 0;
+		for (int i = 0; i < graph.traffic.length; i++)
+		{
+			AbstractLink l = graph.links[i];
+			long sent = l.countMessagesSent();
+			Long last = lastTraffic.put(l, sent);
+			graph.traffic[i] = sent - (last != null ? last : 0);
+			total += graph.traffic[i];
+		}
+		if (total == 0)
+			return;
+		int limit = (int)Math.ceil((1 + IMBALANCE) * graph.size / workers.length);
+		long[] toGroup = new long[workers.length];
+		int moved = 0;
+		for (int a = 0; a < graph.size; a++)
+		{
+			ActorControlImpl actor = graph.actors[a];
+			int current = actor.getAffinityGroup();
+			if (current < 0)
+				continue;
+			Arrays.fill(toGroup, 0);
+			for (int i = graph.first[a]; i < graph.first[a+1]; i++)
+			{
+				int g = graph.actors[graph.peers[i]].getAffinityGroup();
+				if (g >= 0 && graph.peers[i] != a)
+					toGroup[g] += graph.traffic[graph.edges[i]];
+			}
+			int best = current;
+			long bestTraffic = (long)(toGroup[current] * (1 + HYSTERESIS));
+			for (int g = 0; g < workers.length; g++)
+				if (g != current && groupSizes[g].get() < limit && toGroup[g] > bestTraffic)
+				{
+					best = g;
+					bestTraffic = toGroup[g];
+				}
+			if (best != current)
+			{
+				move(actor, best);
+				moved++;
+			}
+		}
+		if (moved > 0 && Log.isEnabled(Log.Significance.MinorNetworkEvent))
+			Log.println(Log.Significance.MinorNetworkEvent, this+": moved "+moved+" actor(s)");
+	}
+	
+	/**
+	 * Undirected adjacency of pooled actors, in compressed sparse row form.
+	 * Each link contributes one entry to both of its endpoints
+	 */
+	private static final class Graph
+	{
+		final int size;
+		final ActorControlImpl[] actors;
+		final AbstractLink[] links;
+		/**
+		 * Messages observed per link
+		 */
+		final long[] traffic;
+		/**
+		 * Adjacency of actor a is peers[first[a]] to peers[first[a+1]-1],
+		 * along links[edges[i]]
+		 */
+		final int[] first, peers, edges;
+		
+		Graph(ActorControl[] controls, AbstractLink[] all)
+		{
+			IdentityHashMap<ActorControl, Integer> index = new IdentityHashMap<>();
+			int n = 0;
+			for (ActorControl c : controls)
+				if (c instanceof ActorControlImpl)
+					index.put(c, n++);
+			size = n;
+			actors = new ActorControlImpl[n];
+			for (ActorControl c : controls)
+				if (c instanceof ActorControlImpl)
+					actors[index.get(c)] = (ActorControlImpl)c;
+			int m = 0;
+			int[] src = new int[all.length], dst = new int[all.length];
+			AbstractLink[] kept = new AbstractLink[all.length];
+			first = new int[n + 1];
+			for (AbstractLink l : all)
+			{
+				Integer s = index.get(l.getSourceControl());
+				Integer d = index.get(l.getDestinationActor());
+				if (s == null || d == null)
+					continue;
+				src[m] = s;
+				dst[m] = d;
+				kept[m++] = l;
+				first[s + 1]++;
+				first[d + 1]++;
+			}
+			links = Arrays.copyOf(kept, m);
+			traffic = new long[m];
+			for (int a = 0; a < n; a++)
+				first[a + 1] += first[a];
+			peers = new int[2 * m];
+			edges = new int[2 * m];
+			int[] fill = Arrays.copyOf(first, n);
+			for (int i = 0; i < m; i++)
+			{
+				peers[fill[src[i]]] = dst[i];
+				edges[fill[src[i]]++] = i;
+				peers[fill[dst[i]]] = src[i];
+				edges[fill[dst[i]]++] = i;
+			}
+		}
+	}
+}
@@ -15,39 +15,123 @@
  */
 package actorsimulator;
 
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Special-purpose queue with optionally blocking read access.
  * Designed to accept writes from multiple threads, but reads only from one
  * thread.
- * Tracks when the read-thread has entered the blocking dequeue method
+ * Tracks when the read-thread has entered the blocking dequeue method.
+ * Enqueueing is lock-free, dequeueing is wait-free for the single reader.
+ * The reader is parked while waiting, and only unparked by writers if it
+ * actually is parked.
  * @param <T> Contained object
  */
 public class BlockingQueue<T>
 {
-	private final ConcurrentLinkedQueue<T> queue = new ConcurrentLinkedQueue<>();
-	private int	messagesDispatched = 0;
+	private static final class Node<T>
+	{
+		private T item;
+		private volatile Node<T> next = null;
+		
+		private Node(T item)
+		{
+			this.item = item;
+		}
+	}
+	
+	/**
+	 * Consumed stub node. Only written by the reader
+	 */
+	private volatile Node<T> head = new Node<>(null);
+	/**
+	 * Most recently enqueued node. Swapped by writers
+	 */
+	private final AtomicReference<Node<T>> tail = new AtomicReference<>(head);
+	/**
+	 * Only written by the reader
+	 */
+	private volatile int	messagesDispatched = 0;
 	private volatile boolean waiting = false, hasQuit = false;
+	/**
+	 * Set by notifyReader(), cleared once the reader has woken up
+	 */
+	private volatile boolean notified = false;
+	/**
+	 * Reader thread, if currently parked or about to park
+	 */
+	private volatile Thread parked = null;
 
+	
+	/**
+	 * Checks whether the local queue contains no items.
+	 * Items that are in the process of being added are considered contained
+	 * @return True if empty or quit, false otherwise
+	 */
 	public boolean isEmpty()
 	{
-		return queue.isEmpty() || hasQuit;
+		return hasQuit || tail.get() == head;
+	}
+	
+	/**
+	 * Dequeues the next item, if any.
+	 * May only be called by the reader thread, unless all callers are
+	 * otherwise serialized
+	 * @return Next item, or null if none is (fully) enqueued
+	 */
+	T poll()
+	{
+		Node<T> next = head.next;
+		if (next == null)
+			return null;
+		T rs = next.item;
+		next.item = null;
+		head = next;
+		return rs;
+	}
+	
+	/**
+	 * Parks the reader until woken by a writer, or quit
+	 */
+	private void park()
+	{
+		parked = Thread.currentThread();
+		if (isEmpty() && !notified)
+			LockSupport.park(this);
+		parked = null;
+		notified = false;
+	}
+	
+	/**
+	 * Wakes the reader if parked, without adding an item.
+	 * Used to signal input arriving through other channels.
+	 * The reader is expected to check those channels after waking
+	 */
+	public void notifyReader()
+	{
+		notified = true;
+		Thread t = parked;
+		if (t != null)
+			LockSupport.unpark(t);
 	}
 
 	/**
-	 * Performs a synchronized wait operation for the next message.
+	 * Waits for the next message.
 	 * This method is invoked while inactive, waiting for messages before
 	 * reactivating the owning actor.
+	 * May return spuriously
 	 * @throws InterruptedException 
 	 */
-	public synchronized void inactiveAwaitMessages() throws InterruptedException
+	public void inactiveAwaitMessages() throws InterruptedException
 	{
 		if (hasQuit)
 			return;
-		if (!queue.isEmpty())
-			return;
-		wait();
+		park();
+		if (Thread.interrupted())
+			throw new InterruptedException();
 	}
 
 	
@@ -67,18 +151,28 @@ public class BlockingQueue<T>
 	 * and must be recreated.
 	 * This method is intended as a final operation to terminate the network.
 	 */
-	public synchronized void quit()
+	public void quit()
 	{
 		hasQuit = true;
-		queue.clear();
-		notifyAll();
+		Thread t = parked;
+		if (t != null)
+			LockSupport.unpark(t);
+	}
+	
+	/**
+	 * Checks whether quit() has been called
+	 * @return True if quit, false otherwise
+	 */
+	public boolean hasQuit()
+	{
+		return hasQuit;
 	}
 	
 	/**
 	 * Checks whether the read thread is currently waiting for items
 	 * @return True if waiting, false otherwise
 	 */
-	public synchronized boolean isWaiting()
+	public boolean isWaiting()
 	{
 		return waiting;
 	}
@@ -87,47 +181,113 @@ public class BlockingQueue<T>
 	 * Attempts to dequeue the next queued item without blocking
 	 * @return Item or null if none are waiting
 	 */
-	public synchronized T tryTake()
+	public T tryTake()
 	{
-		T rs = queue.poll();
+		T rs = poll();
 		if (rs != null)
 			messagesDispatched++;
 		return rs;
 	}
 	
 	/**
-	 * Attempts to dequeue the next queued item, blocking if none are waiting
-	 * @return Dequeued item (never null)
+	 * Dequeues up to the given number of queued items without blocking, and
+	 * passes them to the given sink in order.
+	 * May only be called by the reader thread
+	 * @param max Maximum number of items to dequeue
+	 * @param sink Sink to receive dequeued items
+	 * @return Number of dequeued items
 	 */
-	public synchronized T take(Network reportTo)
+	public int drain(int max, Consumer<? super T> sink)
 	{
+		int n = 0;
 		try
 		{
-			if (hasQuit)
-				throw new Quit();
-			T rs = queue.poll();
-			if (rs != null)
+			T item;
+			while (n < max && (item = poll()) != null)
 			{
-				messagesDispatched++;
-				return rs;
+				n++;
+				sink.accept(item);
 			}
-			
-			waiting = true;
-			reportTo.triggerTerminationCheck();
-			wait();
-			waiting = false;
-			
-			rs = queue.poll();
-			if (rs == null || hasQuit)
-				throw new Quit();
+		}
+		finally
+		{
+			countDispatched(n);
+		}
+		return n;
+	}
+	
+	/**
+	 * Counts items dequeued by the reader thread as dispatched
+	 * @param count Number of dequeued items
+	 */
+	void countDispatched(int count)
+	{
+		messagesDispatched += count;
+	}
+	
+	/**
+	 * Attempts to dequeue the next queued item, blocking if none are waiting
+	 * @return Dequeued item (never null)
+	 */
+	public T take(Network reportTo)
+	{
+		return take(reportTo, null);
+	}
+	
+	/**
+	 * Attempts to dequeue the next queued item, blocking if none are waiting
+	 * and no input arrived through other channels.
+	 * Writers to other channels must call notifyReader() after making their
+	 * input visible to otherInput
+	 * @param reportTo Network to report the reader passive to while blocked
+	 * @param otherInput Checks whether input is pending in other channels.
+	 * May be null
+	 * @return Dequeued item, or null if otherInput reported pending input
+	 */
+	T take(Network reportTo, BooleanSupplier otherInput)
+	{
+		if (hasQuit)
+			throw new Quit();
+		T rs = poll();
+		if (rs != null)
+		{
 			messagesDispatched++;
 			return rs;
 		}
-		catch (InterruptedException ex)
-		{
-			//not happening. don't know what to do
+		if (otherInput != null && otherInput.getAsBoolean())
 			return null;
+
+		//the reader is passive while waiting
+		ActivityCounter activity = reportTo.getActivityCounter();
+		waiting = true;
+		activity.decrement();
+		reportTo.triggerTerminationCheck();
+		try
+		{
+			while ((rs = poll()) == null && !hasQuit)
+			{
+				if (Thread.interrupted())
+				{
+					Thread.currentThread().interrupt();
+					throw new Quit();
+				}
+				if (otherInput != null && otherInput.getAsBoolean())
+					return null;
+				if (isEmpty())
+					park();
+				else
+					Thread.yield();	//writer is about to link its node
+			}
 		}
+		finally
+		{
+			activity.increment();
+			waiting = false;
+		}
+		if (rs == null || hasQuit)
+			throw new Quit();
+		messagesDispatched++;
+		return rs;
 	}
 	
 	/**
@@ -141,26 +301,55 @@ public class BlockingQueue<T>
 	}
 	
 	/**
-	 * Atomic query as the name indicates.
+	 * Query as the name indicates.
 	 * Can be used to determine whether the read-thread is either currently
 	 * active or will be active shortly.
 	 * @return True if non-empty or thread is not waiting
 	 */
-	public synchronized boolean isNotEmptyOrNotWaiting()
+	public boolean isNotEmptyOrNotWaiting()
 	{
 		return !waiting || !isEmpty();
 	}
 	
 	/**
-	 * Atomically adds an item to the end of the local queue.
+	 * Adds an item to the end of the local queue.
 	 * Any waiting read-thread will be woken
 	 * @param item Item to enqueue
 	 */
-	public synchronized void add(T item)
+	public void add(T item)
 	{
 		if (hasQuit)
 			throw new IllegalAccessError("Local queue has quit");
-		queue.add(item);
-		notify();
+		Node<T> n = new Node<>(item);
+		tail.getAndSet(n).next = n;
+		Thread t = parked;
+		if (t != null)
+			LockSupport.unpark(t);
+	}
+	
+	/**
+	 * Adds a number of items to the end of the local queue, in order.
+	 * The items are linked as one chain, and appear to the reader
+	 * consecutively.
+	 * Any waiting read-thread will be woken
+	 * @param items Items to enqueue
+	 */
+	public void addAll(T[] items)
+	{
+		if (hasQuit)
+			throw new IllegalAccessError("Local queue has quit");
+		if (items.length == 0)
+			return;
+		Node<T> first = new Node<>(items[0]), last = first;
+		for (int i = 1; i < items.length; i++)
+		{
+			Node<T> n = new Node<>(items[i]);
+			last.next = n;
+			last = n;
+		}
+		tail.getAndSet(last).next = first;
+		Thread t = parked;
+		if (t != null)
+			LockSupport.unpark(t);
 	}
 }
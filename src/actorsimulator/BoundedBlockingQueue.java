@@ -0,0 +1,377 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Capacity-bounded variant of BlockingQueue.
+ * Writers and the reader are serialized by a lock, and writers apply the
+ * configured overflow policy if the queue is full.
+ * Dropped and rejected items count as dispatched, and as handled by the
+ * optional activity counter, so that they do not prevent termination
+ * detection.
+ * @param <T> Contained object
+ */
+public class BoundedBlockingQueue<T> extends BlockingQueue<T>
+{
+	private final int capacity;
+	private final Mailbox.OverflowPolicy policy;
+	private final LongAdder overflowCounter;
+	private final ActivityCounter activity;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notFull = lock.newCondition();
+	private final NotFullBlocker notFullBlocker = new NotFullBlocker();
+	private int size = 0;
+	private volatile int dropped = 0, overflows = 0;
+	
+	/**
+	 * Constructs a new bounded queue
+	 * @param capacity Maximum number of contained items. Must be positive
+	 * @param policy Policy to apply if an item is added to a full queue.
+	 * Must not be null
+	 * @param overflowCounter Counter to increment whenever the policy is
+	 * applied. May be null
+	 */
+	public BoundedBlockingQueue(int capacity, Mailbox.OverflowPolicy policy, LongAdder overflowCounter)
+	{
+		this(capacity, policy, overflowCounter, null);
+	}
+	
+	/**
+	 * Constructs a new bounded queue
+	 * @param capacity Maximum number of contained items. Must be positive
+	 * @param policy Policy to apply if an item is added to a full queue.
+	 * Must not be null
+	 * @param overflowCounter Counter to increment whenever the policy is
+	 * applied. May be null
+	 * @param activity Counter to decrement whenever an item is dropped or
+	 * rejected. May be null
+	 */
+	BoundedBlockingQueue(int capacity, Mailbox.OverflowPolicy policy, LongAdder overflowCounter, ActivityCounter activity)
+	{
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity must be positive");
+		if (policy == null)
+			throw new IllegalArgumentException("policy is null");
+		this.capacity = capacity;
+		this.policy = policy;
+		this.overflowCounter = overflowCounter;
+		this.activity = activity;
+	}
+	
+	/**
+	 * Retrieves the maximum number of contained items
+	 * @return Capacity
+	 */
+	public int getCapacity()
+	{
+		return capacity;
+	}
+	
+	/**
+	 * Retrieves the policy applied if an item is added to the full queue
+	 * @return Overflow policy
+	 */
+	public Mailbox.OverflowPolicy getPolicy()
+	{
+		return policy;
+	}
+	
+	/**
+	 * Retrieves the number of times the overflow policy was applied
+	 * since creation of the local object
+	 * @return Number of overflows
+	 */
+	public int countOverflows()
+	{
+		return overflows;
+	}
+	
+	/**
+	 * Retrieves the number of items that were dropped or rejected
+	 * since creation of the local object
+	 * @return Number of dropped items
+	 */
+	public int countDroppedMessages()
+	{
+		return dropped;
+	}
+	
+	private void signalOverflow()
+	{
+		overflows++;
+		if (overflowCounter != null)
+			overflowCounter.increment();
+	}
+	
+	private void signalDropped()
+	{
+		dropped++;
+		if (activity != null)
+			activity.decrement();
+	}
+
+	@Override
+	T poll()
+	{
+		lock.lock();
+		try
+		{
+			T rs = super.poll();
+			if (rs != null)
+			{
+				size--;
+				notFull.signal();
+			}
+			return rs;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Items moved per lock acquisition by drain()
+	 */
+	private static final int DRAIN_CHUNK = 64;
+	
+	/**
+	 * Dequeues up to the given number of queued items without blocking.
+	 * Items are moved out in chunks under one lock acquisition each, and
+	 * passed to the sink while not holding the lock
+	 * @param max Maximum number of items to dequeue
+	 * @param sink Sink to receive dequeued items
+	 * @return Number of dequeued items
+	 */
+	@Override
+	public int drain(int max, Consumer<? super T> sink)
+	{
+		@SuppressWarnings("unchecked")
+		T[] chunk = (T[])new Object[Math.max(0, Math.min(max, DRAIN_CHUNK))];
+		int total = 0;
+		while (total < max)
+		{
+			int n = 0;
+			lock.lock();
+			try
+			{
+				int limit = Math.min(max - total, chunk.length);
+				T item;
+				while (n < limit && (item = super.poll()) != null)
+					chunk[n++] = item;
+				if (n > 0)
+				{
+					size -= n;
+					notFull.signalAll();
+				}
+			}
+			finally
+			{
+				lock.unlock();
+			}
+			if (n == 0)
+				break;
+			int handed = 0;
+			try
+			{
+				while (handed < n)
+				{
+					T item = chunk[handed];
+					chunk[handed++] = null;
+					sink.accept(item);
+				}
+			}
+			finally
+			{
+				countDispatched(handed);
+				if (handed < n)
+					dropRemaining(chunk, handed, n);
+			}
+			total += n;
+		}
+		return total;
+	}
+
+	/**
+	 * Drops chunk items that were dequeued by drain() but could not be passed
+	 * on, because the sink failed
+	 */
+	private void dropRemaining(T[] chunk, int from, int to)
+	{
+		lock.lock();
+		try
+		{
+			for (int i = from; i < to; i++)
+			{
+				chunk[i] = null;
+				signalDropped();
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int countDispatchesMessages()
+	{
+		return super.countDispatchesMessages() + dropped;
+	}
+
+	@Override
+	public void quit()
+	{
+		lock.lock();
+		try
+		{
+			super.quit();
+			notFull.signalAll();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Adds an item to the end of the local queue, applying the overflow
+	 * policy if the queue is full.
+	 * Any waiting read-thread will be woken
+	 * @param item Item to enqueue
+	 * @throws IllegalStateException if the queue is full and the policy is
+	 * FAIL
+	 */
+	@Override
+	public void add(T item)
+	{
+		lock.lock();
+		try
+		{
+			boolean blocked = false;
+			while (size >= capacity && !hasQuit())
+			{
+				switch (policy)
+				{
+					case BLOCK:
+						if (!blocked)
+						{
+							blocked = true;
+							signalOverflow();
+						}
+						try
+						{
+							//pool workers must let the pool compensate, or
+							//the reader may never get to run
+							if (ForkJoinTask.inForkJoinPool())
+								ForkJoinPool.managedBlock(notFullBlocker);
+							else
+								notFull.await();
+						}
+						catch (InterruptedException ex)
+						{
+							Thread.currentThread().interrupt();
+							throw new Quit();
+						}
+						break;
+					case DROP_NEWEST:
+						signalOverflow();
+						signalDropped();
+						return;
+					case DROP_OLDEST:
+						signalOverflow();
+						if (super.poll() != null)
+						{
+							size--;
+							signalDropped();
+						}
+						break;
+					default:
+						signalOverflow();
+						signalDropped();
+						throw new IllegalStateException("Mailbox capacity ("+capacity+") exceeded");
+				}
+			}
+			super.add(item);
+			size++;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Adds a number of items to the end of the local queue, in order,
+	 * applying the overflow policy to each item individually.
+	 * If an item is rejected, all subsequent items of the batch are discarded
+	 * as well
+	 * @param items Items to enqueue
+	 * @throws IllegalStateException if the queue is full and the policy is
+	 * FAIL
+	 */
+	@Override
+	public void addAll(T[] items)
+	{
+		lock.lock();
+		try
+		{
+			int i = 0;
+			try
+			{
+				for (; i < items.length; i++)
+					add(items[i]);
+			}
+			finally
+			{
+				for (i++; i < items.length; i++)
+					signalDropped();
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Waits for free capacity on behalf of a pool worker.
+	 * Only used while holding the lock
+	 */
+	private class NotFullBlocker implements ForkJoinPool.ManagedBlocker
+	{
+		@Override
+		public boolean block() throws InterruptedException
+		{
+			if (!isReleasable())
+				notFull.await();
+			return true;
+		}
+
+		@Override
+		public boolean isReleasable()
+		{
+			return size < capacity || hasQuit();
+		}
+	}
+}
@@ -0,0 +1,41 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+/**
+ * Actor logic whose state can be saved and restored.
+ * Required by networks using the OPTIMISTIC time model, where actors
+ * execute speculatively and are rolled back if messages arrive out of
+ * virtual time order.
+ * The saved state must capture everything that influences future
+ * executions, and must not be modified by subsequent executions.
+ */
+public interface CheckpointableActorLogic extends ActorLogic
+{
+	/**
+	 * Captures the current logic state.
+	 * Called before each execution in optimistic mode
+	 * @return Immutable state snapshot. May be null if the logic is stateless
+	 */
+	public Object saveState();
+	
+	/**
+	 * Restores a state previously returned by saveState().
+	 * The same state may be restored more than once
+	 * @param state State snapshot to restore
+	 */
+	public void restoreState(Object state);
+}
@@ -15,129 +15,312 @@
  */
 package actorsimulator;
 
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.DelayQueue;
-import java.util.concurrent.Delayed;
-import java.util.concurrent.TimeUnit;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-
 /**
- * Thread-based delaying actor link.
+ * Delaying actor link.
  * Messages sent along this link are delayed by a configurable time-delta before
  * delivery.
+ * Pending messages are kept in a per-link FIFO, and delivered by the owning
+ * network's shared delivery scheduler.
  */
-public class DelayedLink extends AbstractLink implements Runnable
+public class DelayedLink extends AbstractLink
 {
-	private final Thread thread;
-
+	private final DeliveryScheduler scheduler;
+	private final long nanoDelay;
+	/**
+	 * Termination detection counter.
+	 * Messages held for real-time delivery count as outstanding work.
+	 * Messages held by a virtual scheduler do not, since the network
+	 * advances virtual time once everything else is done
+	 */
+	private final ActivityCounter activity;
+	
+	/**
+	 * Pending messages and their delivery deadlines, as ring buffer.
+	 * Guarded by this
+	 */
+	private Object[] messages = null;
+	private long[] deadlines = null;
+	/**
+	 * Primitive payloads of entries marked PRIMITIVE in messages, in the same
+	 * ring layout. Allocated on first use. Guarded by this
+	 */
+	private long[] values = null;
+	private static final Object PRIMITIVE = new Object();
+	private int first = 0, count = 0;
+	private long lastDeadline = Long.MIN_VALUE;
+	private boolean scheduled = false, terminate = false;
+	
+	/**
+	 * Next link in the same timer wheel list. Owned by the scheduler
+	 */
+	DelayedLink timerNext = null;
+	/**
+	 * Deadline of the first pending message while scheduled
+	 */
+	long timerDeadline = 0;
 
 
 	@Override
-	public boolean isIdle()
+	public synchronized boolean isIdle()
 	{
-		return items.isEmpty();
+		return count == 0;
+	}
+
+	/**
+	 * Retrieves the number of messages sent but not yet delivered.
+	 * Unsynchronized, so that metrics sampling never contends with senders.
+	 * May be momentarily stale
+	 * @return In-flight message count
+	 */
+	int countInFlight()
+	{
+		return count;
 	}
 
-	private volatile boolean terminate = false;
-	
 	@Override
-	public void shutdown()
+	public synchronized void shutdown()
 	{
 		terminate = true;
-		thread.interrupt();
-		try
-		{
-			thread.join();
-		}
-		catch (InterruptedException ex)
-		{}
+		messages = null;
+		deadlines = null;
+		values = null;
+		count = 0;
 	}
 	
-	@Override
-	public void run()
+	private void push(Object message, long value, long deadline)
 	{
-		while (!terminate)
+		if (messages == null || count == messages.length)
 		{
-			try
+			int cap = messages == null ? 4 : messages.length * 2;
+			Object[] m = new Object[cap];
+			long[] d = new long[cap];
+			long[] v = values != null ? new long[cap] : null;
+			for (int i = 0; i < count; i++)
 			{
-				getDestinationMailbox().receive(new Message(getSourceActor(), getReverse(), items.take().message));
+				int at = (first + i) % messages.length;
+				m[i] = messages[at];
+				d[i] = deadlines[at];
+				if (v != null)
+					v[i] = values[at];
 			}
-			catch (InterruptedException ex)
+			messages = m;
+			deadlines = d;
+			values = v;
+			first = 0;
+		}
+		int at = (first + count) % messages.length;
+		messages[at] = message;
+		deadlines[at] = deadline;
+		if (message == PRIMITIVE)
+		{
+			if (values == null)
+				values = new long[messages.length];
+			values[at] = value;
+		}
+		count++;
+	}
+	
+	/**
+	 * Delivers all pending messages whose deadline has passed, in order.
+	 * Called by the delivery scheduler only
+	 * @param now Current scheduler time
+	 * @return True if messages remain pending, in which case timerDeadline is
+	 * updated and the link must be rescheduled. False if the link is no
+	 * longer scheduled
+	 */
+	boolean deliverDue(long now)
+	{
+		while (true)
+		{
+			Object message;
+			long deadline, value;
+			synchronized (this)
 			{
-				if (!terminate)
-					throw new RuntimeException(ex);
+				if (count == 0 || terminate)
+				{
+					scheduled = false;
+					return false;
+				}
+				deadline = deadlines[first];
+				if (deadline - now > 0)
+				{
+					timerDeadline = deadline;
+					return true;
+				}
+				message = messages[first];
+				value = message == PRIMITIVE ? values[first] : 0;
+				messages[first] = null;
+				first = (first + 1) % messages.length;
+				count--;
 			}
+			deliver(message, value, deadline);
 		}
 	}
-
-
 	
-	private class Item implements Delayed
+	/**
+	 * Delivers the first pending message, regardless of its deadline.
+	 * Called by the delivery scheduler only
+	 * @return True if messages remain pending, in which case timerDeadline is
+	 * updated and the link must be rescheduled. False if the link is no
+	 * longer scheduled
+	 */
+	boolean deliverNext()
 	{
-		private final Object message;
-		private final long deliverAtNanoTime;
-		
-		public Item(Object msg, long deliverAtNanoTime)
+		Object message;
+		long deadline, value;
+		synchronized (this)
 		{
-			message = msg;
-			this.deliverAtNanoTime = deliverAtNanoTime;
+			if (count == 0 || terminate)
+			{
+				scheduled = false;
+				return false;
+			}
+			message = messages[first];
+			value = message == PRIMITIVE ? values[first] : 0;
+			deadline = deadlines[first];
+			messages[first] = null;
+			first = (first + 1) % messages.length;
+			count--;
 		}
-
-		@Override
-		public long getDelay(TimeUnit unit)
+		deliver(message, value, deadline);
+		synchronized (this)
 		{
-			final long t = System.nanoTime();
-			final long nanoDelay = deliverAtNanoTime - t;
-			switch (unit)
+			if (count == 0 || terminate)
 			{
-				case DAYS:
-					return nanoDelay / 24 / 60 / 60 / 1000000000;
-				case MICROSECONDS:
-					return nanoDelay / 1000;
-				case MILLISECONDS:
-					return nanoDelay / 1000 / 1000;
-				case HOURS:
-					return nanoDelay / 60 / 60 / 1000000000;
-				case MINUTES:
-					return nanoDelay / 60 / 1000000000;
-				case NANOSECONDS:
-					return nanoDelay;
-				case SECONDS:
-					return nanoDelay/ 1000000000;
-				default:
-					return 0;
+				scheduled = false;
+				return false;
 			}
+			timerDeadline = deadlines[first];
+			return true;
 		}
-
-		@Override
-		public int compareTo(Delayed o)
+	}
+	
+	private void deliver(Object message, long value, long deadline)
+	{
+		boolean virtual = scheduler.isVirtual();
+		signalDeliver(1);
+		FlightEvents.delayedDelivery(this, msDelay, virtual ? Long.MIN_VALUE : deadline);
+		try
+		{
+			if (message == PRIMITIVE)
+				getDestinationMailbox().receivePrimitive(this, value, virtual ? deadline : 0);
+			else
+			{
+				long now = latencyClock();
+				long sent = virtual || now == 0 ? now : deadline - nanoDelay;
+				getDestinationMailbox().receive(envelope(message, virtual ? deadline : 0, sent, now));
+			}
+		}
+		catch (RuntimeException ex)
+		{
+			//runs on the scheduler shared by all delayed links, which must
+			//survive a failing destination, e.g. a full FAIL mailbox
+			Log.println(Log.Significance.Error, getSourceActor()+"->"+getDestinationActor()+": delivery failed, message dropped: "+ex);
+		}
+		finally
 		{
-			return Long.compare(deliverAtNanoTime, ((Item)o).deliverAtNanoTime);
+			if (!virtual)
+				activity.decrement();
 		}
 	}
 	
-	private final DelayQueue<Item>	items = new DelayQueue<>();
-	
 	private final int msDelay;
 	
 	DelayedLink(ActorControl source, ActorControl destination, int msDelay)
 	{
 		super(source,destination);
 		this.msDelay = msDelay;
-		this.thread = new Thread(this);
-		this.thread.start();
+		this.nanoDelay = msDelay * 1000000L;
+		this.scheduler = source.getNetwork().getDeliveryScheduler();
+		this.activity = source.getNetwork().getActivityCounter();
 	}
 	
-	
+	/**
+	 * Fetches the delay applied to messages sent along this link
+	 * @return Delay in milliseconds
+	 */
+	public int getDelayMS()
+	{
+		return msDelay;
+	}
 	
 	
 	@Override
 	public void sendMessage(Object message)
 	{
-		super.signalSend();
-		items.add(new Item(message,System.nanoTime()+msDelay * 1000000));
+		enqueue(message, 0);
+	}
+	
+	@Override
+	void sendPrimitive(long value)
+	{
+		enqueue(PRIMITIVE, value);
+	}
+	
+	/**
+	 * Enqueues a message or primitive payload for delayed delivery
+	 * @param message Message, or PRIMITIVE
+	 * @param value Primitive payload if message is PRIMITIVE
+	 */
+	private void enqueue(Object message, long value)
+	{
+		super.signalSend(message == PRIMITIVE ? Long.BYTES : sizeOf(message));
+		boolean schedule;
+		synchronized (this)
+		{
+			if (terminate)
+				return;
+			long deadline = scheduler.now(getSourceControl())+nanoDelay;
+			//per-link deadlines never decrease, preserving FIFO order.
+			//virtual sender clocks are monotonic, except when rolled back
+			//by optimistic execution, where the earlier deadline is correct
+			if (!scheduler.isVirtual())
+			{
+				deadline = Math.max(deadline, lastDeadline);
+				activity.increment();
+			}
+			lastDeadline = deadline;
+			push(message, value, deadline);
+			schedule = !scheduled;
+			if (schedule)
+			{
+				scheduled = true;
+				timerDeadline = deadline;
+			}
+		}
+		if (schedule)
+			scheduler.schedule(this);
+	}
+	
+	@Override
+	public void sendMessages(Object[] messages)
+	{
+		if (messages.length == 0)
+			return;
+		super.signalSend(messages.length, sizeOf(messages));
+		boolean schedule;
+		synchronized (this)
+		{
+			if (terminate)
+				return;
+			long deadline = scheduler.now(getSourceControl())+nanoDelay;
+			if (!scheduler.isVirtual())
+			{
+				deadline = Math.max(deadline, lastDeadline);
+				activity.increment(messages.length);
+			}
+			lastDeadline = deadline;
+			for (Object message : messages)
+				push(message, 0, deadline);
+			schedule = !scheduled;
+			if (schedule)
+			{
+				scheduled = true;
+				timerDeadline = deadline;
+			}
+		}
+		if (schedule)
+			scheduler.schedule(this);
 	}
 
 	
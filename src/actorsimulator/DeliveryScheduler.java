@@ -0,0 +1,51 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+/**
+ * Time source and scheduler for delayed message delivery.
+ * Shared by all delayed links of a network.
+ */
+interface DeliveryScheduler
+{
+	/**
+	 * Fetches the current time as seen by a sending actor
+	 * @param sender Actor sending a message
+	 * @return Current time in nanoseconds
+	 */
+	long		now(ActorControl sender);
+	
+	/**
+	 * Checks whether the local scheduler operates in virtual time.
+	 * If so, delivered messages are stamped with their delivery time
+	 * @return True if virtual, false if wall clock
+	 */
+	boolean		isVirtual();
+	
+	/**
+	 * Schedules a link for delivery of its pending messages.
+	 * The link must not currently be scheduled.
+	 * Thread safe
+	 * @param link Link to schedule. Its timer deadline must be set
+	 */
+	void		schedule(DelayedLink link);
+	
+	/**
+	 * Stops the scheduler.
+	 * Any links still scheduled are dropped
+	 */
+	void		stop();
+}
@@ -0,0 +1,33 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+/**
+ * Actor link that can send double payloads without boxing.
+ * All links created by a Network implement this interface.
+ * Payloads are received via ActorLogicInterface.tryGetNextPrimitive() and
+ * drainPrimitives(), separately from object messages. Order is preserved
+ * among the primitive payloads sent along the same link, but not relative
+ * to object messages.
+ */
+public interface DoubleLink extends ActorLink
+{
+	/**
+	 * Sends a double payload along the local link.
+	 * @param value Value to send
+	 */
+	void		sendDouble(double value);
+}
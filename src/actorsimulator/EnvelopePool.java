@@ -0,0 +1,112 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free pool of reusable message envelopes.
+ * Implemented as a multi-producer multi-consumer ring buffer, where each
+ * cell carries a sequence number indicating whether it may currently be
+ * written or read (Vyukov).
+ * Each recycling actor owns one pool. Envelopes are returned by the actor's
+ * logic once expired, and taken by any thread sending on the actor's behalf.
+ * Neither operation blocks: taking from an empty pool or returning to a
+ * full one fails immediately.
+ */
+class EnvelopePool
+{
+	private final Message[] cells;
+	private final AtomicLongArray sequences;
+	private final int mask;
+	private final AtomicLong enqueuePos = new AtomicLong(),
+							dequeuePos = new AtomicLong();
+	
+	/**
+	 * Constructs a new empty pool
+	 * @param capacity Maximum number of pooled envelopes. Must be a positive
+	 * power of two
+	 */
+	public EnvelopePool(int capacity)
+	{
+		if (capacity <= 0 || (capacity & (capacity - 1)) != 0)
+			throw new IllegalArgumentException("Pool capacity must be a positive power of two: "+capacity);
+		cells = new Message[capacity];
+		sequences = new AtomicLongArray(capacity);
+		mask = capacity - 1;
+		for (int i = 0; i < capacity; i++)
+			sequences.set(i, i);
+	}
+	
+	/**
+	 * Returns an envelope to the pool
+	 * @param env Envelope to return. Must not be used by the caller afterwards
+	 * @return True if pooled, false if the pool is full
+	 */
+	public boolean offer(Message env)
+	{
+		long pos = enqueuePos.get();
+		int at;
+		while (true)
+		{
+			at = (int)pos & mask;
+			long dif = sequences.get(at) - pos;
+			if (dif == 0)
+			{
+				if (enqueuePos.compareAndSet(pos, pos + 1))
+					break;
+				pos = enqueuePos.get();
+			}
+			else if (dif < 0)
+				return false;
+			else
+				pos = enqueuePos.get();
+		}
+		cells[at] = env;
+		sequences.set(at, pos + 1);
+		return true;
+	}
+	
+	/**
+	 * Takes an envelope from the pool
+	 * @return Pooled envelope, or null if the pool is empty
+	 */
+	public Message poll()
+	{
+		long pos = dequeuePos.get();
+		int at;
+		while (true)
+		{
+			at = (int)pos & mask;
+			long dif = sequences.get(at) - (pos + 1);
+			if (dif == 0)
+			{
+				if (dequeuePos.compareAndSet(pos, pos + 1))
+					break;
+				pos = dequeuePos.get();
+			}
+			else if (dif < 0)
+				return null;
+			else
+				pos = dequeuePos.get();
+		}
+		Message rs = cells[at];
+		cells[at] = null;
+		sequences.set(at, pos + mask + 1);
+		return rs;
+	}
+}
@@ -0,0 +1,167 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+/**
+ * JDK Flight Recorder events emitted by the runtime.
+ * Actors are identified by their creation index (as in "N1:A7"), links by
+ * the indices of their source and destination actors.
+ * Call sites check recording first, which is a single field read while no
+ * recording is running. Only then is an event allocated to check whether it
+ * is enabled in the running recordings.
+ * The events are defined by FlightRecording, which is looked up
+ * reflectively since the project targets Java 8. If the runtime lacks
+ * jdk.jfr, recording remains false and no event is ever emitted.
+ * Per-message events are disabled by default, and must be enabled in the
+ * recording settings
+ */
+final class FlightEvents
+{
+	private FlightEvents()
+	{
+	}
+	
+	/**
+	 * Event factory, implemented by FlightRecording
+	 */
+	interface Recorder
+	{
+		Object beginActivation(int actor);
+		void commit(Object event);
+		void enqueued(int actor, int source, int count);
+		void dequeued(int actor, int source);
+		void delayedDelivery(int source, int destination, int delayMS, long lateness);
+		Object beginTerminationCheck();
+		void endTerminationCheck(Object event, String network, boolean quiescent);
+	}
+	
+	/**
+	 * Set while any flight recording is running. Updated by FlightRecording
+	 */
+	static volatile boolean recording = false;
+	
+	/**
+	 * Event factory, or null if jdk.jfr is not supported by the runtime.
+	 * Looked up reflectively since the project targets Java 8
+	 */
+	private static final Recorder RECORDER = findRecorder();
+	
+	private static Recorder findRecorder()
+	{
+		try
+		{
+			Class.forName("jdk.jfr.FlightRecorder");
+			return (Recorder)Class.forName(FlightEvents.class.getPackage().getName() + ".FlightRecording")
+					.getDeclaredConstructor().newInstance();
+		}
+		catch (ReflectiveOperationException | LinkageError | ClassCastException ex)
+		{
+			recording = false;
+			return null;
+		}
+	}
+	
+	/**
+	 * Starts an activation event, if enabled
+	 * @param actor Actor index
+	 * @return Started event, to be passed to endActivation(), or null if
+	 * disabled
+	 */
+	static Object beginActivation(int actor)
+	{
+		return recording ? RECORDER.beginActivation(actor) : null;
+	}
+	
+	/**
+	 * Ends and commits an activation event
+	 * @param e Event returned by beginActivation(). May be null
+	 */
+	static void endActivation(Object e)
+	{
+		if (e != null)
+			RECORDER.commit(e);
+	}
+	
+	private static int indexOf(Actor actor)
+	{
+		return actor instanceof ActorControl ? Network.getCreationIndex((ActorControl)actor) : 0;
+	}
+	
+	/**
+	 * Emits an enqueue event, if enabled
+	 * @param actor Receiving actor index
+	 * @param sender Sending actor
+	 * @param count Number of messages
+	 */
+	static void enqueued(int actor, Actor sender, int count)
+	{
+		if (recording)
+			RECORDER.enqueued(actor, indexOf(sender), count);
+	}
+	
+	/**
+	 * Emits an enqueue event for a message, if enabled
+	 * @param actor Receiving actor index
+	 * @param m Received message
+	 * @param count Number of messages
+	 */
+	static void enqueued(int actor, Message m, int count)
+	{
+		if (recording)
+			RECORDER.enqueued(actor, indexOf(m.getSender()), count);
+	}
+	
+	/**
+	 * Emits a dequeue event, if enabled
+	 * @param actor Receiving actor index
+	 * @param m Taken message. May be null, in which case nothing is emitted
+	 */
+	static void dequeued(int actor, Message m)
+	{
+		if (m != null && recording)
+			RECORDER.dequeued(actor, indexOf(m.getSender()));
+	}
+	
+	/**
+	 * Emits a delayed delivery event, if enabled
+	 * @param link Delivering link
+	 * @param delayMS Link delay
+	 * @param deadline Delivery deadline in System.nanoTime() time, or
+	 * Long.MIN_VALUE if in virtual time
+	 */
+	static void delayedDelivery(AbstractLink link, int delayMS, long deadline)
+	{
+		if (recording)
+			RECORDER.delayedDelivery(indexOf(link.getSourceActor()),
+					indexOf(link.getDestinationActor()), delayMS,
+					deadline == Long.MIN_VALUE ? 0 : System.nanoTime() - deadline);
+	}
+	
+	/**
+	 * Starts a termination check event, if enabled
+	 * @return Started event, or null if disabled
+	 */
+	static Object beginTerminationCheck()
+	{
+		return recording ? RECORDER.beginTerminationCheck() : null;
+	}
+	
+	static void endTerminationCheck(Object e, Network network, boolean quiescent)
+	{
+		if (e != null)
+			RECORDER.endTerminationCheck(e, network.toString(), quiescent);
+	}
+}
@@ -0,0 +1,212 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events backing FlightEvents.
+ * The only class referencing jdk.jfr. It is instantiated reflectively by
+ * FlightEvents if the runtime provides jdk.jfr, and only called while
+ * FlightEvents.recording is set.
+ * May be excluded from builds against a JDK without jdk.jfr
+ */
+final class FlightRecording implements FlightEvents.Recorder
+{
+	static
+	{
+		FlightRecorder.addListener(new FlightRecorderListener()
+		{
+			@Override
+			public void recorderInitialized(FlightRecorder recorder)
+			{
+				update();
+			}
+			
+			@Override
+			public void recordingStateChanged(Recording r)
+			{
+				update();
+			}
+		});
+		update();
+	}
+	
+	private static void update()
+	{
+		FlightEvents.recording = FlightRecorder.isInitialized()
+			&& FlightRecorder.getFlightRecorder().getRecordings().stream()
+				.anyMatch((r) -> r.getState() == RecordingState.RUNNING);
+	}
+	
+	@Name("actorsimulator.ActorActivation")
+	@Label("Actor Activation")
+	@Category("Actor Simulator")
+	@Description("Actor logic executing, from activation until it returns or blocks for messages")
+	@StackTrace(false)
+	static final class Activation extends Event
+	{
+		@Label("Actor")
+		int actor;
+	}
+	
+	@Name("actorsimulator.MessageEnqueue")
+	@Label("Message Enqueue")
+	@Category("Actor Simulator")
+	@Description("Messages delivered to an actor's mailbox")
+	@StackTrace(false)
+	@Enabled(false)
+	static final class Enqueue extends Event
+	{
+		@Label("Actor")
+		int actor;
+		@Label("Source Actor")
+		int source;
+		@Label("Count")
+		int count;
+	}
+	
+	@Name("actorsimulator.MessageDequeue")
+	@Label("Message Dequeue")
+	@Category("Actor Simulator")
+	@Description("Message taken from an actor's mailbox by its logic")
+	@StackTrace(false)
+	@Enabled(false)
+	static final class Dequeue extends Event
+	{
+		@Label("Actor")
+		int actor;
+		@Label("Source Actor")
+		int source;
+	}
+	
+	@Name("actorsimulator.DelayedDelivery")
+	@Label("Delayed Delivery")
+	@Category("Actor Simulator")
+	@Description("Message released by a delayed link to its destination")
+	@StackTrace(false)
+	@Enabled(false)
+	static final class DelayedDelivery extends Event
+	{
+		@Label("Source Actor")
+		int source;
+		@Label("Destination Actor")
+		int destination;
+		@Label("Delay")
+		@Timespan(Timespan.MILLISECONDS)
+		long delay;
+		@Label("Lateness")
+		@Description("Time past the delivery deadline. 0 in virtual time")
+		@Timespan
+		long lateness;
+	}
+	
+	@Name("actorsimulator.TerminationCheck")
+	@Label("Termination Check")
+	@Category("Actor Simulator")
+	@Description("Quiescence check executed by a network's termination checker")
+	@StackTrace(false)
+	static final class TerminationCheck extends Event
+	{
+		@Label("Network")
+		String network;
+		@Label("Quiescent")
+		boolean quiescent;
+	}
+	
+	@Override
+	public Object beginActivation(int actor)
+	{
+		Activation e = new Activation();
+		if (!e.isEnabled())
+			return null;
+		e.actor = actor;
+		e.begin();
+		return e;
+	}
+	
+	@Override
+	public void commit(Object e)
+	{
+		((Event)e).commit();
+	}
+	
+	@Override
+	public void enqueued(int actor, int source, int count)
+	{
+		Enqueue e = new Enqueue();
+		if (!e.isEnabled())
+			return;
+		e.actor = actor;
+		e.source = source;
+		e.count = count;
+		e.commit();
+	}
+	
+	@Override
+	public void dequeued(int actor, int source)
+	{
+		Dequeue e = new Dequeue();
+		if (!e.isEnabled())
+			return;
+		e.actor = actor;
+		e.source = source;
+		e.commit();
+	}
+	
+	@Override
+	public void delayedDelivery(int source, int destination, int delayMS, long lateness)
+	{
+		DelayedDelivery e = new DelayedDelivery();
+		if (!e.isEnabled())
+			return;
+		e.source = source;
+		e.destination = destination;
+		e.delay = delayMS;
+		e.lateness = lateness;
+		e.commit();
+	}
+	
+	@Override
+	public Object beginTerminationCheck()
+	{
+		TerminationCheck e = new TerminationCheck();
+		if (!e.isEnabled())
+			return null;
+		e.begin();
+		return e;
+	}
+	
+	@Override
+	public void endTerminationCheck(Object event, String network, boolean quiescent)
+	{
+		TerminationCheck e = (TerminationCheck)event;
+		e.network = network;
+		e.quiescent = quiescent;
+		e.commit();
+	}
+}
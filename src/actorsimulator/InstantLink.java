@@ -37,8 +37,29 @@ public class InstantLink extends AbstractLink
 	@Override
 	public void sendMessage(Object message)
 	{
-		super.signalSend();
-		getDestinationMailbox().receive(new Message(getSourceActor(), getReverse(), message));
+		signalInstantSend(1, sizeOf(message));
+		getDestinationMailbox().receive(envelope(message, getSourceLocalTime()));
+	}
+	
+	@Override
+	void sendPrimitive(long value)
+	{
+		signalInstantSend(1, Long.BYTES);
+		getDestinationMailbox().receivePrimitive(this, value, getSourceLocalTime());
+	}
+	
+	@Override
+	public void sendMessages(Object[] messages)
+	{
+		if (messages.length == 0)
+			return;
+		signalInstantSend(messages.length, sizeOf(messages));
+		long time = getSourceLocalTime();
+		long now = latencyClock();
+		Message[] envs = new Message[messages.length];
+		for (int i = 0; i < envs.length; i++)
+			envs[i] = envelope(messages[i], time, now, now);
+		getDestinationMailbox().receiveAll(envs);
 	}
 
 
@@ -16,18 +16,18 @@
 package actorsimulator;
 
 /**
- *
- * @author IronFox
+ * Actor link that can send int payloads without boxing.
+ * All links created by a Network implement this interface.
+ * Payloads are received via ActorLogicInterface.tryGetNextPrimitive() and
+ * drainPrimitives(), separately from object messages. Order is preserved
+ * among the primitive payloads sent along the same link, but not relative
+ * to object messages.
  */
-class Ref<T>
+public interface IntLink extends ActorLink
 {
-	public T ref = null;
-	
-	public Ref()
-	{}
-	
-	public Ref(T item)
-	{
-		ref = item;	
-	}
+	/**
+	 * Sends a int payload along the local link.
+	 * @param value Value to send
+	 */
+	void		sendInt(int value);
 }
@@ -0,0 +1,81 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+/**
+ * End-to-end latency of the messages received along one link, split into
+ * the time spent in transit on the link and the time spent waiting in the
+ * destination mailbox.
+ * Transit is only observed on delayed links of a real-time network. Instant
+ * links hand messages to the mailbox immediately, while virtual time and
+ * superstep links stamp them on delivery, so only their queueing time is
+ * recorded
+ */
+public final class LinkLatency
+{
+	private final AbstractLink link;
+	private final LatencyHistogram linkDelay = new LatencyHistogram();
+	private final LatencyHistogram queueing = new LatencyHistogram();
+	
+	LinkLatency(AbstractLink link)
+	{
+		this.link = link;
+	}
+	
+	/**
+	 * Records the latency of one message.
+	 * Called by the destination actor only
+	 * @param sentNanos Time the message was sent
+	 * @param deliveredNanos Time the message entered the destination mailbox
+	 * @param dequeuedNanos Time the destination took the message
+	 */
+	void record(long sentNanos, long deliveredNanos, long dequeuedNanos)
+	{
+		if (deliveredNanos != sentNanos)
+			linkDelay.record(deliveredNanos - sentNanos);
+		queueing.record(dequeuedNanos - deliveredNanos);
+	}
+	
+	public Actor getSource()
+	{
+		return link.getSourceActor();
+	}
+	
+	public Actor getDestination()
+	{
+		return link.getDestinationActor();
+	}
+	
+	/**
+	 * Fetches the histogram of times from send to mailbox entry
+	 * @return Link delay histogram. Empty unless the link is a delayed link
+	 * of a real-time network
+	 */
+	public LatencyHistogram getLinkDelay()
+	{
+		return linkDelay;
+	}
+	
+	/**
+	 * Fetches the histogram of times from mailbox entry to the destination
+	 * taking the message
+	 * @return Queueing time histogram
+	 */
+	public LatencyHistogram getQueueing()
+	{
+		return queueing;
+	}
+}
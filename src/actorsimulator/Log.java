@@ -15,14 +15,20 @@
  */
 package actorsimulator;
 
-import java.text.SimpleDateFormat;
-import java.time.Instant;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.TimeZone;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
 
 /**
- * Centralized message logging
+ * Centralized message logging.
+ * By default, lines are appended to a bounded lock-free ring buffer, and
+ * formatted and written in batches by a background daemon thread. If the
+ * buffer is full, new lines are dropped and counted, except errors, which are
+ * then written synchronously. Pending lines are flushed by flush(), on
+ * network shutdown, and on JVM exit
  */
 public class Log
 {
@@ -34,30 +40,299 @@ public class Log
 		Error
 	}
 	
-	private static final SimpleDateFormat form = new SimpleDateFormat("HH:mm:ss.SSS");
-	private static final long STARTED = Calendar.getInstance().getTime().getTime();
+	private static final long STARTED = System.nanoTime();
+	
+	public static Significance minSignificance = Significance.MajorNetworkEvent;
+	/**
+	 * If true, lines are formatted and written by the logging thread.
+	 * If false, the calling thread formats and writes each line itself
+	 */
+	public static volatile boolean asynchronous = true;
+	
+	private static final int CAPACITY = 1 << 16;
+	private static final int MASK = CAPACITY - 1;
+	/**
+	 * Ring buffer slots. A slot at position p may be written once its
+	 * sequence equals p, and read once it equals p+1
+	 */
+	private static final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+	private static final long[] stamps = new long[CAPACITY];
+	private static final Significance[] levels = new Significance[CAPACITY];
+	private static final String[] lines = new String[CAPACITY];
+	/**
+	 * Next position to be claimed by a producer
+	 */
+	private static final AtomicLong head = new AtomicLong();
+	/**
+	 * Number of lines written by the writer thread
+	 */
+	private static volatile long consumed = 0;
+	private static final LongAdder dropped = new LongAdder();
+	
+	private static volatile Thread writer = null;
+	private static volatile boolean writerSleeping = false;
 	
 	static
 	{
-		form.setTimeZone(TimeZone.getTimeZone("GMT"));	
+		for (int i = 0; i < CAPACITY; i++)
+			sequences.set(i, i);
+		Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "Log flush"));
 	}
 	
-	private static String timestamp()
+	/**
+	 * Formats a timestamp relative to the start of the program.
+	 * Thread safe
+	 * @param nanoTime Time as returned by System.nanoTime()
+	 * @param out Builder to append HH:mm:ss.SSS to
+	 */
+	private static void appendTimestamp(long nanoTime, StringBuilder out)
 	{
-		long msDelta = Calendar.getInstance().getTime().getTime() - STARTED;
-		Date dt = Date.from(Instant.ofEpochMilli(msDelta));
-		return form.format(dt);
+		long ms = Math.max(0, nanoTime - STARTED) / 1000000;
+		append2(out, ms / 3600000).append(':');
+		append2(out, ms / 60000 % 60).append(':');
+		append2(out, ms / 1000 % 60).append('.');
+		long frac = ms % 1000;
+		if (frac < 100)
+			out.append('0');
+		if (frac < 10)
+			out.append('0');
+		out.append(frac);
 	}
 	
-	public static Significance minSignificance = Significance.MajorNetworkEvent;
+	private static StringBuilder append2(StringBuilder out, long value)
+	{
+		if (value < 10)
+			out.append('0');
+		return out.append(value);
+	}
+	
+	/**
+	 * Checks whether lines of the given significance are currently logged.
+	 * Allows callers to skip building log lines that would be discarded
+	 * @param v Significance to check
+	 * @return True if enabled
+	 */
+	public static boolean isEnabled(Significance v)
+	{
+		return v.compareTo(minSignificance) >= 0;
+	}
+	
+	/**
+	 * Logs a line built on demand.
+	 * The supplier is only invoked if the significance is enabled
+	 * @param v Line significance
+	 * @param line Supplier of the line to log
+	 */
+	public static void println(Significance v, Supplier<?> line)
+	{
+		if (isEnabled(v))
+			println(v, line.get());
+	}
+	
+	/**
+	 * Logs a line with one parameter.
+	 * The first {} in pattern is replaced by the argument, but only if the
+	 * significance is enabled
+	 * @param v Line significance
+	 * @param pattern Line pattern
+	 * @param arg Argument
+	 */
+	public static void println(Significance v, String pattern, Object arg)
+	{
+		if (isEnabled(v))
+			println(v, format(pattern, arg, null, 1));
+	}
+	
+	/**
+	 * Logs a line with two parameters.
+	 * The first two {} in pattern are replaced by the arguments, but only if
+	 * the significance is enabled
+	 * @param v Line significance
+	 * @param pattern Line pattern
+	 * @param arg1 First argument
+	 * @param arg2 Second argument
+	 */
+	public static void println(Significance v, String pattern, Object arg1, Object arg2)
+	{
+		if (isEnabled(v))
+			println(v, format(pattern, arg1, arg2, 2));
+	}
+	
+	/**
+	 * Replaces the first occurrences of {} in a pattern by the given
+	 * arguments
+	 * @param pattern Pattern
+	 * @param arg1 First argument
+	 * @param arg2 Second argument
+	 * @param count Number of arguments to substitute
+	 * @return Formatted string
+	 */
+	static String format(String pattern, Object arg1, Object arg2, int count)
+	{
+		StringBuilder sb = new StringBuilder(pattern.length() + 32);
+		int from = 0;
+		for (int i = 0; i < count; i++)
+		{
+			int at = pattern.indexOf("{}", from);
+			if (at < 0)
+				break;
+			sb.append(pattern, from, at).append(i == 0 ? arg1 : arg2);
+			from = at + 2;
+		}
+		return sb.append(pattern, from, pattern.length()).toString();
+	}
 	
 	public static void println(Significance v, Object obj)
 	{
 		if (obj == null || v.compareTo(minSignificance) < 0)
 			return;
-		if (v == Significance.Error)
-			System.err.println(timestamp()+": "+obj);
-		else
-			System.out.println(timestamp()+": "+obj);
+		long stamp = System.nanoTime();
+		String line = obj.toString();
+		if (!asynchronous || !append(stamp, v, line))
+		{
+			if (asynchronous && v != Significance.Error)
+			{
+				dropped.increment();
+				return;
+			}
+			StringBuilder sb = new StringBuilder(line.length() + 16);
+			appendTimestamp(stamp, sb);
+			sb.append(": ").append(line);
+			(v == Significance.Error ? System.err : System.out).println(sb);
+		}
+	}
+	
+	/**
+	 * Appends a line to the ring buffer
+	 * @return True if appended, false if the buffer is full
+	 */
+	private static boolean append(long stamp, Significance v, String line)
+	{
+		ensureWriter();
+		long pos = head.get();
+		int at;
+		while (true)
+		{
+			at = (int)pos & MASK;
+			long dif = sequences.get(at) - pos;
+			if (dif == 0)
+			{
+				if (head.compareAndSet(pos, pos + 1))
+					break;
+				pos = head.get();
+			}
+			else if (dif < 0)
+				return false;
+			else
+				pos = head.get();
+		}
+		stamps[at] = stamp;
+		levels[at] = v;
+		lines[at] = line;
+		sequences.set(at, pos + 1);
+		if (writerSleeping)
+			LockSupport.unpark(writer);
+		return true;
+	}
+	
+	/**
+	 * Starts the writer thread on first use.
+	 * Only locks until the writer has been started
+	 */
+	private static void ensureWriter()
+	{
+		if (writer == null)
+			startWriter();
+	}
+	
+	private static synchronized void startWriter()
+	{
+		if (writer != null)
+			return;
+		Thread t = new Thread(Log::writeLoop, "Log writer");
+		t.setDaemon(true);
+		writer = t;
+		t.start();
+	}
+	
+	/**
+	 * Writer thread body. Drains the ring buffer in batches
+	 */
+	private static void writeLoop()
+	{
+		StringBuilder out = new StringBuilder(), err = new StringBuilder();
+		long reportedDrops = 0;
+		long pos = 0;
+		while (true)
+		{
+			int batch = 0;
+			while (batch < CAPACITY)
+			{
+				int at = (int)pos & MASK;
+				if (sequences.get(at) != pos + 1)
+					break;
+				StringBuilder sb = levels[at] == Significance.Error ? err : out;
+				appendTimestamp(stamps[at], sb);
+				sb.append(": ").append(lines[at]).append(System.lineSeparator());
+				lines[at] = null;
+				levels[at] = null;
+				sequences.set(at, pos + CAPACITY);
+				pos++;
+				batch++;
+			}
+			long drops = dropped.sum();
+			if (drops != reportedDrops)
+			{
+				appendTimestamp(System.nanoTime(), err);
+				err.append(": ").append(drops - reportedDrops)
+					.append(" log line(s) dropped").append(System.lineSeparator());
+				reportedDrops = drops;
+			}
+			write(System.out, out);
+			write(System.err, err);
+			if (batch > 0)
+			{
+				consumed = pos;
+				continue;
+			}
+			writerSleeping = true;
+			if (sequences.get((int)pos & MASK) != pos + 1)
+				LockSupport.park(Log.class);
+			writerSleeping = false;
+		}
+	}
+	
+	private static void write(PrintStream stream, StringBuilder sb)
+	{
+		if (sb.length() == 0)
+			return;
+		stream.print(sb);
+		stream.flush();
+		sb.setLength(0);
+	}
+	
+	/**
+	 * Waits until all lines logged before the call have been written
+	 */
+	public static void flush()
+	{
+		long target = head.get();
+		Thread w = writer;
+		if (w == null)
+			return;
+		while (consumed < target && w.isAlive())
+		{
+			LockSupport.unpark(w);
+			LockSupport.parkNanos(100000);
+		}
+	}
+	
+	/**
+	 * Retrieves the number of lines dropped because the ring buffer was full
+	 * @return Number of dropped lines since program start
+	 */
+	public static long countDroppedLines()
+	{
+		return dropped.sum();
 	}
 }
@@ -20,11 +20,66 @@ package actorsimulator;
  */
 public interface Mailbox
 {
+	/**
+	 * Determines how a capacity-bounded mailbox reacts to messages
+	 * received while full
+	 */
+	public enum OverflowPolicy
+	{
+		/**
+		 * The delivering thread blocks until space is available.
+		 * May deadlock cyclic topologies. Not supported for destinations of
+		 * delayed links, whose deliveries share one scheduler thread
+		 */
+		BLOCK,
+		/**
+		 * The received message is discarded
+		 */
+		DROP_NEWEST,
+		/**
+		 * The oldest pending message is discarded to make room
+		 */
+		DROP_OLDEST,
+		/**
+		 * Delivery fails with an IllegalStateException thrown to the sender.
+		 * The message is discarded.
+		 * Delayed links deliver after the send has returned, so there is no
+		 * sender to fail. The message is then discarded, counted as an
+		 * overflow, and logged as an error
+		 */
+		FAIL
+	}
+	
+
 	/**
 	 * Immediately receives a message.
 	 * Used by implementations of ActorLink to deliver messages.
 	 * @param env Envelope to deliver
 	 */
 	void receive(Message env);
+	
+	/**
+	 * Immediately receives a number of messages, in order.
+	 * Used by implementations of ActorLink to deliver batches of messages.
+	 * @param envs Envelopes to deliver
+	 */
+	default void receiveAll(Message[] envs)
+	{
+		for (Message env : envs)
+			receive(env);
+	}
+	
+	/**
+	 * Immediately receives a primitive payload.
+	 * Used by implementations of ActorLink to deliver payloads sent via
+	 * IntLink, LongLink, or DoubleLink.
+	 * @param via Link the payload was sent along
+	 * @param value Raw payload bits
+	 * @param time Delivery time in nanoseconds
+	 */
+	default void receivePrimitive(AbstractLink via, long value, long time)
+	{
+		throw new UnsupportedOperationException("Primitive payloads are not supported by "+this);
+	}
 }
 
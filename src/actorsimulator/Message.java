@@ -21,15 +21,99 @@ package actorsimulator;
  */
 public class Message
 {
-	private final ActorLink linkToSender;
+	/**
+	 * Link to the sender, or, if viaLink is set, the link the message was
+	 * sent along. Sender and reverse link are then derived on demand
+	 */
+	private ActorLink link;
 	private final Actor sender;
-	private final Object message;
+	/**
+	 * Set if the local envelope was created by a link
+	 */
+	private final boolean viaLink;
+	private Object message;
+	private long time;
+	/**
+	 * System.nanoTime() at which the message was sent and handed to the
+	 * destination mailbox, if the network tracks latencies. 0 otherwise
+	 */
+	long sentNanos, deliveredNanos;
 	
 	public Message(Actor sender, ActorLink linkToSender, Object message)
+	{
+		this(sender, linkToSender, message, 0);
+	}
+	
+	public Message(Actor sender, ActorLink linkToSender, Object message, long time)
 	{
 		this.sender = sender;
-		this.linkToSender = linkToSender;	
+		this.link = linkToSender;	
+		this.message = message;
+		this.time = time;
+		this.viaLink = false;
+	}
+	
+	/**
+	 * Creates a message delivered along the given link.
+	 * Sender and reverse link are not copied but resolved from the link when
+	 * queried, so the same content can be delivered to many recipients at
+	 * the cost of one small envelope each
+	 * @param via Link the message was sent along. Must not be null
+	 * @param message Message content. May be null
+	 * @param time Delivery time in nanoseconds
+	 */
+	Message(AbstractLink via, Object message, long time)
+	{
+		this.sender = null;
+		this.link = via;
+		this.message = message;
+		this.time = time;
+		this.viaLink = true;
+	}
+	
+	/**
+	 * Checks whether the local envelope was created by a link, and may thus
+	 * be recycled by its recipient
+	 * @return True if recyclable
+	 */
+	boolean isRecyclable()
+	{
+		return viaLink;
+	}
+	
+	/**
+	 * Reinitializes a recyclable envelope.
+	 * Only called while the envelope is owned by an envelope pool
+	 * @param via Link the message is sent along. Null while pooled
+	 * @param message New message content
+	 * @param time New delivery time
+	 */
+	void reset(AbstractLink via, Object message, long time)
+	{
+		this.link = via;
 		this.message = message;
+		this.time = time;
+		this.sentNanos = 0;
+		this.deliveredNanos = 0;
+	}
+	
+	/**
+	 * Fetches the link a link-created envelope was sent along
+	 * @return Link or null if the message was constructed by the sender
+	 */
+	AbstractLink getVia()
+	{
+		return viaLink ? (AbstractLink)link : null;
+	}
+	
+	/**
+	 * Fetches the virtual time at which the local message was delivered.
+	 * Always 0 unless the network uses a virtual time model
+	 * @return Delivery time in nanoseconds since the simulation start
+	 */
+	public long getTime()
+	{
+		return time;
 	}
 	
 	/**
@@ -38,7 +122,7 @@ public class Message
 	 */
 	public Actor getSender()
 	{
-		return	sender;
+		return	viaLink ? ((AbstractLink)link).getSourceActor() : sender;
 	}
 	
 	/**
@@ -48,7 +132,7 @@ public class Message
 	 */
 	public ActorLink getLinkToSender()
 	{
-		return linkToSender;
+		return viaLink ? link.getReverse() : link;
 	}
 	
 	/**
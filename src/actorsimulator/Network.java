@@ -15,13 +15,28 @@
  */
 package actorsimulator;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Locale;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 /**
  * Global registry for actors and links.
@@ -38,10 +53,652 @@ public class Network
 	private final int myIndex = counter.incrementAndGet();
 	
 	private final int defaultDelayMS;
+	private final Scheduling scheduling;
+	private volatile ForkJoinPool pool = null;
+	/**
+	 * Affinity group workers. Null unless started in AFFINITY scheduling mode
+	 */
+	private volatile AffinityScheduler affinityScheduler = null;
+	/**
+	 * Active event trace, if any
+	 */
+	private volatile Trace trace = null;
+	private volatile int latencySampleInterval = 0;
+	/**
+	 * File to write link latencies to on shutdown, if any
+	 */
+	private File latencyExport = null;
+	private volatile ToLongFunction<Object> messageSizer = TrafficMatrix::payloadSize;
+	private final NetworkMetrics metrics = new NetworkMetrics(this);
+	/**
+	 * Name the metrics are registered under with the platform MBean server,
+	 * if any
+	 */
+	private ObjectName mbeanName = null;
+	private final TimeModel timeModel;
+	private final DeliveryScheduler deliveryScheduler;
+	/**
+	 * Virtual clock. Null unless running in VIRTUAL time model
+	 */
+	private final VirtualClock virtualClock;
+	/**
+	 * Optimistic execution engine. Null unless running in OPTIMISTIC mode
+	 */
+	private final TimeWarp timeWarp;
+	/**
+	 * Superstep driver. Null unless running in SUPERSTEP mode
+	 */
+	private final SuperstepScheduler superstepScheduler;
+	/**
+	 * Smallest delay of all links created so far. Guarded by links
+	 */
+	private volatile int minLinkDelayMS = Integer.MAX_VALUE;
+	private final LongAdder[] overflowCounters = new LongAdder[Mailbox.OverflowPolicy.values().length];
+	private final OffHeapArena arena = new OffHeapArena();
+	/**
+	 * Outstanding actor activations and messages
+	 */
+	private final ActivityCounter activity = new ActivityCounter();
+	
+	/**
+	 * Determines how actor logics are mapped to threads
+	 */
+	public enum Scheduling
+	{
+		/**
+		 * Each actor is executed by its own dedicated thread
+		 */
+		THREAD_PER_ACTOR,
+		/**
+		 * Actors are executed as tasks on a shared work-stealing pool sized
+		 * to the number of available processors.
+		 * An actor is scheduled when messages arrive, and releases its worker
+		 * when ActorLogic.execute() returns.
+		 * Actors blocking in ActorLogicInterface.waitGetNextMessage() hold
+		 * on to their worker, but allow the pool to compensate with spare
+		 * threads.
+		 */
+		POOLED,
+		/**
+		 * Like POOLED, but actors are partitioned into affinity groups, one
+		 * per available processor, each executed by its own worker.
+		 * Groups are initially grown along the links registered when the
+		 * network starts, such as those of implemented blueprints, and
+		 * refined periodically from observed link traffic. Keeps chatty
+		 * actors on the same core, at the expense of work stealing between
+		 * groups. Strictly sequential chains, such as a ring passing a single
+		 * token, pay a worker wake-up per group crossing, and are better
+		 * served by POOLED.
+		 * Experimental: no throughput gain over POOLED has been measured yet,
+		 * and single-token rings run about three times slower
+		 */
+		AFFINITY,
+		/**
+		 * Each actor is executed by its own virtual thread.
+		 * Allows blocking-style logics to scale to very large actor counts.
+		 * Requires a Java 21 or newer runtime.
+		 */
+		VIRTUAL_THREAD
+	}
+	
+	/**
+	 * Determines how time passes for delayed links
+	 */
+	public enum TimeModel
+	{
+		/**
+		 * Delayed messages are delivered after the respective delay has
+		 * passed in wall clock time
+		 */
+		REAL,
+		/**
+		 * Discrete-event simulation.
+		 * The network maintains a virtual clock, which is advanced straight
+		 * to the next pending delayed delivery whenever all actors are
+		 * passive. Delay semantics are preserved, but no time is spent
+		 * waiting
+		 */
+		VIRTUAL,
+		/**
+		 * Conservative parallel discrete-event simulation.
+		 * Like VIRTUAL, but each advance delivers all messages due within
+		 * a time window [T,T+lookahead), where T is the earliest pending
+		 * delivery, and lookahead is the smallest delay of all links in
+		 * the network. Receiving actors then process their windows
+		 * concurrently, each advancing its own local clock.
+		 * Instant links imply zero lookahead, which degrades to VIRTUAL.
+		 * Links created while running must not have a smaller delay than
+		 * all existing links, since messages along them could fall into
+		 * the current window
+		 */
+		CONSERVATIVE,
+		/**
+		 * Optimistic parallel discrete-event simulation (Time Warp).
+		 * Actors process messages in virtual time order as soon as they
+		 * arrive, on a shared pool regardless of the scheduling mode.
+		 * Out-of-order arrivals roll the receiving actor back to a saved
+		 * state, cancelling messages sent in the meantime.
+		 * Requires all logics to implement CheckpointableActorLogic and to
+		 * only use non-blocking receives. Actor log output is deferred until
+		 * committed. Actors cannot be instantiated while running
+		 */
+		OPTIMISTIC,
+		/**
+		 * Bulk synchronous parallel execution.
+		 * The network runs in supersteps. Messages sent during a superstep
+		 * are delivered as a batch once it ends, regardless of link delays.
+		 * Each superstep executes every actor with pending input once, in
+		 * parallel on a shared pool regardless of the scheduling mode.
+		 * Messages are received ordered by sender, making results
+		 * deterministic. The network terminates once a superstep sends no
+		 * messages. Blocking receives and blocking mailboxes are not
+		 * supported
+		 */
+		SUPERSTEP
+	}
+	
+	/**
+	 * Virtual thread factory, or null if not supported by the runtime.
+	 * Looked up reflectively since the project targets Java 8
+	 */
+	private static final ThreadFactory VIRTUAL_THREAD_FACTORY = findVirtualThreadFactory();
+	
+	private static ThreadFactory findVirtualThreadFactory()
+	{
+		try
+		{
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			return (ThreadFactory)Class.forName("java.lang.Thread$Builder")
+					.getMethod("factory").invoke(builder);
+		}
+		catch (ReflectiveOperationException | ClassCastException ex)
+		{
+			return null;
+		}
+	}
 	
 	public Network(int defaultLinkDelayMS)
 	{
+		this(defaultLinkDelayMS, Scheduling.THREAD_PER_ACTOR);
+	}
+	
+	/**
+	 * Constructs a new network
+	 * @param defaultLinkDelayMS Millisecond delay applied to links created
+	 * without explicit delay. 0 indicates instant delivery
+	 * @param scheduling Actor thread mapping to use. Must not be null
+	 */
+	public Network(int defaultLinkDelayMS, Scheduling scheduling)
+	{
+		this(defaultLinkDelayMS, scheduling, TimeModel.REAL);
+	}
+	
+	/**
+	 * Constructs a new network
+	 * @param defaultLinkDelayMS Millisecond delay applied to links created
+	 * without explicit delay. 0 indicates instant delivery
+	 * @param scheduling Actor thread mapping to use. Must not be null
+	 * @param timeModel Time model applied to delayed links. Must not be null
+	 */
+	public Network(int defaultLinkDelayMS, Scheduling scheduling, TimeModel timeModel)
+	{
+		if (scheduling == null)
+			throw new IllegalArgumentException("scheduling is null");
+		if (timeModel == null)
+			throw new IllegalArgumentException("timeModel is null");
+		if (scheduling == Scheduling.VIRTUAL_THREAD && VIRTUAL_THREAD_FACTORY == null)
+			throw new UnsupportedOperationException("Virtual threads are not supported by this Java runtime");
 		defaultDelayMS = defaultLinkDelayMS;
+		this.scheduling = scheduling;
+		this.timeModel = timeModel;
+		virtualClock = timeModel == TimeModel.VIRTUAL || timeModel == TimeModel.CONSERVATIVE
+				? new VirtualClock() : null;
+		timeWarp = timeModel == TimeModel.OPTIMISTIC ? new TimeWarp(this) : null;
+		superstepScheduler = timeModel == TimeModel.SUPERSTEP ? new SuperstepScheduler(this) : null;
+		if (virtualClock != null)
+			deliveryScheduler = virtualClock;
+		else if (timeWarp != null)
+			deliveryScheduler = timeWarp;
+		else
+			deliveryScheduler = new TimerWheel(this);
+		for (int i = 0; i < overflowCounters.length; i++)
+			overflowCounters[i] = new LongAdder();
+	}
+	
+	/**
+	 * Fetches the actor thread mapping used by this network
+	 * @return Scheduling mode. Never null
+	 */
+	public Scheduling getScheduling()
+	{
+		return scheduling;
+	}
+	
+	/**
+	 * Fetches the time model applied to delayed links
+	 * @return Time model. Never null
+	 */
+	public TimeModel getTimeModel()
+	{
+		return timeModel;
+	}
+	
+	/**
+	 * Fetches the current global virtual time.
+	 * Only advances in virtual time models
+	 * @return Virtual time in milliseconds since the simulation start
+	 */
+	public double getVirtualTimeMS()
+	{
+		return getVirtualTimeNanos() / 1e6;
+	}
+	
+	long getVirtualTimeNanos()
+	{
+		if (virtualClock != null)
+			return virtualClock.now();
+		return timeWarp != null ? timeWarp.getGvt() : 0;
+	}
+	
+	/**
+	 * Fetches the number of supersteps completed so far.
+	 * Only advances in SUPERSTEP time model
+	 * @return Superstep count
+	 */
+	public long getSuperstep()
+	{
+		return superstepScheduler != null ? superstepScheduler.getSuperstep() : 0;
+	}
+	
+	/**
+	 * Fetches the superstep driver
+	 * @return Driver or null if not running in SUPERSTEP mode
+	 */
+	SuperstepScheduler getSuperstepScheduler()
+	{
+		return superstepScheduler;
+	}
+	
+	/**
+	 * Fetches the optimistic execution engine
+	 * @return Engine or null if not running in OPTIMISTIC mode
+	 */
+	TimeWarp getTimeWarp()
+	{
+		return timeWarp;
+	}
+	
+	/**
+	 * Determines the conservative lookahead of the local network
+	 * @return Smallest delay of all links in nanoseconds
+	 */
+	long getLookahead()
+	{
+		int ms = minLinkDelayMS;
+		return ms == Integer.MAX_VALUE ? 0 : ms * 1000000L;
+	}
+	
+	/**
+	 * Retrieves how often bounded mailboxes have applied the specified
+	 * overflow policy since construction of the local network
+	 * @param policy Policy to query
+	 * @return Number of overflows handled via the given policy
+	 */
+	public long countMailboxOverflows(Mailbox.OverflowPolicy policy)
+	{
+		return overflowCounters[policy.ordinal()].sum();
+	}
+	
+	/**
+	 * Starts recording a binary event trace into the given file.
+	 * Records message sends and deliveries, actor activations, and link
+	 * creations until stopTrace() or shutdown() is called. The resulting file
+	 * can be evaluated using TraceAnalyzer.
+	 * Recording all events can double the run time of networks whose logic
+	 * merely forwards messages. Use a sample interval for those
+	 * @param file File to write. Replaced if existing
+	 * @param capacity Maximum file size in bytes. Events beyond are dropped
+	 * @throws IOException if the file could not be created
+	 */
+	public void startTrace(File file, long capacity) throws IOException
+	{
+		startTrace(file, capacity, 1);
+	}
+	
+	/**
+	 * Starts recording a sampled binary event trace into the given file.
+	 * Records every sampleInterval-th message send and delivery along each
+	 * link, and every sampleInterval-th activation of each actor. Link
+	 * creations are always recorded. TraceAnalyzer scales the counts it
+	 * reports accordingly, but cannot determine a critical path.
+	 * On a pooled ring whose logic merely forwards messages, recording all
+	 * events nearly doubled the run time, whereas an interval of 16 added
+	 * about 7%, and an interval of 64 about 2%
+	 * @param file File to write. Replaced if existing
+	 * @param capacity Maximum file size in bytes. Events beyond are dropped
+	 * @param sampleInterval Record every sampleInterval-th event. 1 to
+	 * record all events
+	 * @throws IOException if the file could not be created
+	 */
+	public synchronized void startTrace(File file, long capacity, int sampleInterval) throws IOException
+	{
+		if (trace != null)
+			throw new IllegalStateException("Trace already active");
+		trace = new Trace(file, capacity, sampleInterval);
+		log(false, "Trace started: "+file);
+	}
+	
+	/**
+	 * Stops recording the active event trace, if any
+	 * @throws IOException if the trace file could not be finalized
+	 */
+	public synchronized void stopTrace() throws IOException
+	{
+		Trace t = trace;
+		if (t == null)
+			return;
+		trace = null;
+		t.close();
+		if (t.countDropped() > 0)
+			log(true, "Trace stopped, "+t.countDropped()+" event(s) dropped");
+		else
+			log(false, "Trace stopped");
+	}
+	
+	/**
+	 * Fetches the active event trace
+	 * @return Trace or null if not tracing
+	 */
+	Trace getTrace()
+	{
+		return trace;
+	}
+	
+	/**
+	 * Enables or disables per-link latency tracking.
+	 * While enabled, sampled messages are stamped when sent and delivered,
+	 * and the time from send to delivery and from delivery to being taken by
+	 * the destination logic is recorded per link. Each sample costs two to
+	 * three System.nanoTime() calls, so sampling only every nth message keeps
+	 * the overhead low on fine-grained workloads. Primitive messages and
+	 * actors not created by this network are not tracked
+	 * @param sampleInterval Track every sampleInterval-th message or batch
+	 * sent along each link. 1 to track all messages, 0 to stop tracking
+	 */
+	public void setLatencyTracking(int sampleInterval)
+	{
+		if (sampleInterval < 0)
+			throw new IllegalArgumentException("Negative sample interval: "+sampleInterval);
+		latencySampleInterval = sampleInterval;
+	}
+	
+	/**
+	 * Fetches the interval at which messages are sampled for latency tracking
+	 * @return Sample interval, or 0 if not tracking
+	 */
+	public int getLatencySampleInterval()
+	{
+		return latencySampleInterval;
+	}
+	
+	public boolean isLatencyTracking()
+	{
+		return latencySampleInterval != 0;
+	}
+	
+	/**
+	 * Sets the function used to determine the payload size of messages for
+	 * traffic accounting.
+	 * Called by senders for every message sent, so it should be fast and
+	 * thread-safe. Primitive messages always count 8 bytes
+	 * @param sizer Sizer to use. Null to restore the default
+	 * TrafficMatrix.payloadSize()
+	 */
+	public void setMessageSizer(ToLongFunction<Object> sizer)
+	{
+		messageSizer = sizer != null ? sizer : TrafficMatrix::payloadSize;
+	}
+	
+	ToLongFunction<Object> getMessageSizer()
+	{
+		return messageSizer;
+	}
+	
+	/**
+	 * Takes a snapshot of the messages and bytes sent along all links so
+	 * far.
+	 * May be called at any time, including while the network is running.
+	 * Under optimistic execution, sends later rolled back are included
+	 * @return Sparse traffic matrix of all links that carried messages
+	 */
+	public TrafficMatrix getTrafficMatrix()
+	{
+		ArrayList<TrafficMatrix.Entry> entries = new ArrayList<>();
+		for (AbstractLink l : getLinkArray())
+		{
+			long messages = l.countMessagesSent();
+			if (messages == 0)
+				continue;
+			entries.add(new TrafficMatrix.Entry(
+					l.getSourceIndex(), String.valueOf(l.getSourceActor()),
+					l.getDestinationIndex(), String.valueOf(l.getDestinationActor()),
+					messages, l.countBytesSent()));
+		}
+		return new TrafficMatrix(System.currentTimeMillis(), entries);
+	}
+	
+	/**
+	 * Sample interval applied by setLatencyExport() if latency tracking was
+	 * not enabled before
+	 */
+	public static final int DEFAULT_LATENCY_SAMPLE_INTERVAL = 16;
+	
+	/**
+	 * Sets a file to write all link latencies to as CSV when the network is
+	 * shut down.
+	 * Enables tracking of every DEFAULT_LATENCY_SAMPLE_INTERVAL-th message if
+	 * not already tracking. Call setLatencyTracking() to choose a different
+	 * interval
+	 * @param file File to write. Replaced if existing. Null to not export
+	 */
+	public synchronized void setLatencyExport(File file)
+	{
+		latencyExport = file;
+		if (file != null && latencySampleInterval == 0)
+			latencySampleInterval = DEFAULT_LATENCY_SAMPLE_INTERVAL;
+	}
+	
+	/**
+	 * Fetches the latency histograms of all links that have received
+	 * tracked messages
+	 * @return New array of live histograms
+	 */
+	public LinkLatency[] getLinkLatencies()
+	{
+		ArrayList<LinkLatency> rs = new ArrayList<>();
+		for (AbstractLink l : getLinkArray())
+			if (l.getLatency() != null)
+				rs.add(l.getLatency());
+		return rs.toArray(new LinkLatency[rs.size()]);
+	}
+	
+	/**
+	 * Writes the latencies of all links that have received tracked messages
+	 * as CSV, one line per link and kind ("link" or "queue"), in microseconds
+	 * @param out Target to write to
+	 * @throws IOException if writing failed
+	 */
+	public void exportLatencies(Appendable out) throws IOException
+	{
+		out.append("source,destination,kind,count,mean_us,p50_us,p99_us,p999_us,max_us\n");
+		for (LinkLatency l : getLinkLatencies())
+		{
+			exportLatency(out, l, "link", l.getLinkDelay());
+			exportLatency(out, l, "queue", l.getQueueing());
+		}
+	}
+	
+	private static void exportLatency(Appendable out, LinkLatency l, String kind, LatencyHistogram h) throws IOException
+	{
+		if (h.getCount() == 0)
+			return;
+		out.append(csv(l.getSource())).append(',').append(csv(l.getDestination())).append(',')
+			.append(kind).append(',').append(Long.toString(h.getCount())).append(',')
+			.append(String.format(Locale.ROOT, "%.3f,%.3f,%.3f,%.3f,%.3f\n", h.getMean() / 1e3,
+				h.getPercentile(0.5) / 1e3, h.getPercentile(0.99) / 1e3, h.getPercentile(0.999) / 1e3,
+				h.getMax() / 1e3));
+	}
+	
+	private static String csv(Actor actor)
+	{
+		String s = String.valueOf(actor);
+		if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0)
+			return s;
+		return '"'+s.replace("\"", "\"\"")+'"';
+	}
+	
+	/**
+	 * Fetches the live metrics of the local network
+	 * @return Metrics view
+	 */
+	public NetworkMetricsMXBean getMetrics()
+	{
+		return metrics;
+	}
+	
+	/**
+	 * Package-private metrics registry to record into
+	 */
+	NetworkMetrics getMetricsRegistry()
+	{
+		return metrics;
+	}
+	
+	/**
+	 * Registers the network metrics with the platform MBean server, as
+	 * actorsimulator:type=Network,name=N&lt;index&gt;.
+	 * Enables actor timing. Unregistered on shutdown()
+	 * @return Registered name
+	 * @throws JMException if registration failed
+	 */
+	public synchronized ObjectName registerMBean() throws JMException
+	{
+		if (mbeanName != null)
+			return mbeanName;
+		ObjectName name = new ObjectName("actorsimulator:type=Network,name="+this);
+		ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+		metrics.setActorTimingEnabled(true);
+		mbeanName = name;
+		log(false, "Metrics registered as "+name);
+		return name;
+	}
+	
+	/**
+	 * Unregisters the network metrics from the platform MBean server, if
+	 * registered
+	 * @throws JMException if unregistration failed
+	 */
+	public synchronized void unregisterMBean() throws JMException
+	{
+		if (mbeanName == null)
+			return;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = mbeanName;
+		mbeanName = null;
+		if (server.isRegistered(name))
+			server.unregisterMBean(name);
+	}
+	
+	/**
+	 * Copies the currently registered actors
+	 * @return Actors in order of registration
+	 */
+	ActorControl[] getActorArray()
+	{
+		synchronized(actors)
+		{
+			return actors.toArray(new ActorControl[actors.size()]);
+		}
+	}
+	
+	/**
+	 * Copies the currently registered links
+	 * @return Links in order of creation
+	 */
+	AbstractLink[] getLinkArray()
+	{
+		synchronized(links)
+		{
+			return links.toArray(new AbstractLink[links.size()]);
+		}
+	}
+	
+	/**
+	 * Fetches the off-heap arena to allocate large binary message payloads
+	 * from
+	 * @return Arena of this network. Never null
+	 */
+	public OffHeapArena getArena()
+	{
+		return arena;
+	}
+	
+	/**
+	 * Fetches the delivery scheduler shared by all delayed links of this
+	 * network
+	 * @return Scheduler. Never null
+	 */
+	DeliveryScheduler getDeliveryScheduler()
+	{
+		return deliveryScheduler;
+	}
+	
+	LongAdder getOverflowCounter(Mailbox.OverflowPolicy policy)
+	{
+		return policy != null ? overflowCounters[policy.ordinal()] : null;
+	}
+	
+	/**
+	 * Fetches the counter of outstanding work used for termination
+	 * detection
+	 * @return Counter. Never null
+	 */
+	ActivityCounter getActivityCounter()
+	{
+		return activity;
+	}
+	
+	/**
+	 * Creates a new, unstarted thread to execute an actor logic on
+	 * @param r Runnable to execute
+	 * @return New thread. Virtual if running in VIRTUAL_THREAD mode
+	 */
+	Thread newActorThread(Runnable r)
+	{
+		if (scheduling == Scheduling.VIRTUAL_THREAD)
+			return VIRTUAL_THREAD_FACTORY.newThread(metrics.countThread(r));
+		return new Thread(metrics.countThread(r));
+	}
+	
+	/**
+	 * Fetches the shared actor pool.
+	 * Only available while the network is started in POOLED scheduling
+	 * mode, or OPTIMISTIC or SUPERSTEP time model
+	 * @return Pool or null if not available
+	 */
+	ForkJoinPool getPool()
+	{
+		return pool;
+	}
+	
+	/**
+	 * Fetches the affinity group workers.
+	 * Only available while the network is started in AFFINITY scheduling mode
+	 * @return Scheduler or null if not available
+	 */
+	AffinityScheduler getAffinityScheduler()
+	{
+		return affinityScheduler;
 	}
 	
 	@Override
@@ -53,7 +710,26 @@ public class Network
 	
 	private void log(boolean major, String msg)
 	{
-		Log.println(major ? Log.Significance.MajorNetworkEvent : Log.Significance.MinorNetworkEvent, this + ": "+msg);
+		Log.Significance v = major ? Log.Significance.MajorNetworkEvent : Log.Significance.MinorNetworkEvent;
+		if (Log.isEnabled(v))
+			Log.println(v, this + ": "+msg);
+	}
+	
+	private void log(boolean major, String pattern, Object arg1, Object arg2)
+	{
+		Log.Significance v = major ? Log.Significance.MajorNetworkEvent : Log.Significance.MinorNetworkEvent;
+		if (Log.isEnabled(v))
+			Log.println(v, this + ": "+Log.format(pattern, arg1, arg2, 2));
+	}
+	
+	/**
+	 * Determines a deterministic ordering key of the given actor
+	 * @param actor Actor to order
+	 * @return Creation index of the actor, 0 if unknown
+	 */
+	static int getCreationIndex(ActorControl actor)
+	{
+		return actor instanceof ActorControlImpl ? ((ActorControlImpl)actor).getCreationIndex() : 0;
 	}
 	
 	private static ActorControl toControl(Actor actor)
@@ -72,7 +748,25 @@ public class Network
 	 */
 	public ActorControl instantiate(ActorLogic logic)
 	{
-		ActorControl ctrl = new ActorControlImpl(this,logic);
+		return instantiate(logic, 0, null);
+	}
+	
+	/**
+	 * Instantiates a new actor with a capacity-bounded mailbox.
+	 * @param logic Logic (instance) to use for the new actor
+	 * @param mailboxCapacity Maximum number of messages pending in the new
+	 * actor's mailbox. 0 or less for unbounded
+	 * @param policy Policy to apply when messages are received while the
+	 * mailbox is full. Must not be null if mailboxCapacity is positive
+	 * @return Control to the newly instantiated actor
+	 */
+	public ActorControl instantiate(ActorLogic logic, int mailboxCapacity, Mailbox.OverflowPolicy policy)
+	{
+		if (mailboxCapacity > 0 && policy == null)
+			throw new IllegalArgumentException("policy is null");
+		if (timeWarp != null && isStarted())
+			throw new UnsupportedOperationException("Actors cannot be instantiated during optimistic execution");
+		ActorControl ctrl = new ActorControlImpl(this,logic,mailboxCapacity,policy);
 		synchronized(actors)
 		{
 			actors.add(ctrl);
@@ -89,6 +783,8 @@ public class Network
 	 * @param source Source actor
 	 * @param sink Destination actor
 	 * @return New or existing actor link from source to sink
+	 * @throws IllegalStateException if a new link would reduce the lookahead
+	 * of a running CONSERVATIVE network
 	 */
 	public ActorLink link(Actor source, Actor sink)
 	{
@@ -102,6 +798,8 @@ public class Network
 	 * @param msDelay Millisecond delay applied to all messages transferred
 	 * along the resulting link. Ignored if a link already exists.
 	 * @return New or existing actor link from source to sink
+	 * @throws IllegalStateException if a new link would reduce the lookahead
+	 * of a running CONSERVATIVE network
 	 */
 	public ActorLink link(Actor source, Actor sink, int msDelay)
 	{
@@ -135,43 +833,74 @@ public class Network
 		if (source.getNetwork() != this)
 			throw new IllegalArgumentException("Network.link(): source "+source+" is not part of the local network");
 		
-		Ref<AbstractLink> link = new Ref<>();
-		Ref<Boolean> isNew = new Ref<>(Boolean.FALSE);
-		source.getOutgoingLinks().doLocked(() ->
+		ActorLink existing = source.findConnectionTo(sink);
+		if (existing != null)
+			return checkLink(existing);
+		
+		OutgoingLinks outgoing = source.getOutgoingLinks();
+		AbstractLink forward;
+		outgoing.lock();
+		try
 		{
-			ActorLink rs = source.findConnectionTo(sink);
-			if (rs != null)
+			existing = source.findConnectionTo(sink);
+			if (existing != null)
+				return checkLink(existing);
+			
+			//the running window was computed from the current lookahead
+			if (timeModel == TimeModel.CONSERVATIVE && minLinkDelayMS != Integer.MAX_VALUE
+				&& Math.max(delay, 0) < minLinkDelayMS && isStarted())
+				throw new IllegalStateException("Network.link(): "+source+"->"+sink+" delay ("+delay
+						+" ms) below the lookahead ("+minLinkDelayMS+" ms) of the running conservative simulation");
+			if (superstepScheduler != null)
+				forward = new SuperstepLink(source,sink,superstepScheduler,getCreationIndex(source));
+			else if (delay > 0)
 			{
-				if (!(rs instanceof AbstractLink))
-					throw new IllegalStateException("Found '"+rs+"', but link is not of type AbstractLink");
-				link.ref = (AbstractLink)rs;
-				return;
+				//delayed deliveries run on a scheduler thread shared by all
+				//delayed links, which must never block on a full mailbox
+				if (timeWarp == null && sink instanceof ActorControlImpl && ((ActorControlImpl)sink).blocksWhenFull())
+					throw new IllegalArgumentException("Network.link(): sink "+sink
+							+" has a blocking mailbox, which delayed links cannot deliver to");
+				forward = new DelayedLink(source,sink,delay);
 			}
-			
-			AbstractLink forward = delay > 0
-					? new DelayedLink(source,sink,delay)
-					: new InstantLink(source,sink);
-			source.getOutgoingLinks().add(forward);
-			link.ref = forward;
-			isNew.ref = Boolean.TRUE;
-			log(false, "Connection established: "+source+"->"+sink);
-		});
+			else
+				forward = new InstantLink(source,sink);
+			outgoing.add(forward);
+			Trace t = trace;
+			if (t != null)
+				t.record(Trace.LINK, getCreationIndex(source), getCreationIndex(sink), 0);
+			log(false, "Connection established: {}->{}", source, sink);
+		}
+		finally
+		{
+			outgoing.unlock();
+		}
 
-		if (!isNew.ref)
-			return link.ref;
-		
 		synchronized(links)
 		{
-			links.add(link.ref);
+			links.add(forward);
+			minLinkDelayMS = Math.min(minLinkDelayMS, Math.max(delay,0));
 			
 			ActorLink rev = sink.findConnectionTo(source);
-			if (rev != null && rev != link.ref && rev instanceof AbstractLink)
+			if (rev != null && rev != forward && rev instanceof AbstractLink)
 			{
-				((AbstractLink)link.ref).entangle((AbstractLink)rev);
-				log(false, "Connection entangled: "+source+"<->"+sink);
+				forward.entangle((AbstractLink)rev);
+				log(false, "Connection entangled: {}<->{}", source, sink);
 			}
 		}
-		return link.ref;
+		return forward;
+	}
+	
+	/**
+	 * Verifies that an existing link was created by a network
+	 * @param link Link to check
+	 * @return link
+	 * @throws IllegalStateException if link is not of type AbstractLink
+	 */
+	private static ActorLink checkLink(ActorLink link)
+	{
+		if (!(link instanceof AbstractLink))
+			throw new IllegalStateException("Found '"+link+"', but link is not of type AbstractLink");
+		return link;
 	}
 
 	
@@ -200,6 +929,14 @@ public class Network
 			throw new IllegalAccessError("Trying to restart simulation");
 		
 		terminated.reset();
+		if (scheduling == Scheduling.POOLED || timeWarp != null || superstepScheduler != null)
+			pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+					ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+		if (scheduling == Scheduling.AFFINITY && timeWarp == null && superstepScheduler == null)
+		{
+			affinityScheduler = new AffinityScheduler(this, Runtime.getRuntime().availableProcessors());
+			affinityScheduler.start();
+		}
 		checkThread.start();
 		log(true, "Starting simulation...");
 		synchronized(actors)
@@ -209,60 +946,12 @@ public class Network
 				act.start();
 			});
 		}
-		checkThread.allowTermination();
+		if (superstepScheduler != null)
+			superstepScheduler.start();
+		else
+			checkThread.allowTermination();
 	}
 
-	private static class Status
-	{
-		public int	sent = 0,
-					received = 0,
-					active = 0;
-		public Actor singleActive = null;
-		
-		public boolean equals(Status other)
-		{
-			return other != null
-					&& sent == other.sent 
-					&& received == other.received 
-					&& active == other.active;
-		}
-		
-		public boolean isActive()
-		{
-			return sent != received || active != 0;
-		}
-		
-		public String toString()
-		{
-			return "sent="+sent+",recv="+received+",active="+(active != 1 ? active : singleActive);
-		}
-		
-	};
-	
-	
-	
-	private Status detectStatus()
-	{
-		synchronized(actors)
-		{
-			Status s = new Status();
-
-			for (ActorControl act : actors)
-			{
-				Actor.Status st = act.getStatus();
-				s.received += st.receivedMessages;
-				s.sent += st.sentMessages;
-				if (st.isActive())
-				{
-					s.active ++;
-					s.singleActive = act;
-				}
-			}
-			
-			return s;
-		}
-	}
-	
 	/**
 	 * Terminates simulation execution.
 	 * Should be called exactly once at the end
@@ -271,6 +960,21 @@ public class Network
 	{
 		log(false, "Starting simulation shut down");
 		checkThread.stop();
+		if (superstepScheduler != null)
+			superstepScheduler.stop();
+		deliveryScheduler.stop();
+		if (latencyExport != null)
+		{
+			try (Writer w = Files.newBufferedWriter(latencyExport.toPath(), StandardCharsets.UTF_8))
+			{
+				exportLatencies(w);
+				log(false, "Link latencies written to "+latencyExport);
+			}
+			catch (IOException ex)
+			{
+				Log.println(Log.Significance.Error, this+": "+ex);
+			}
+		}
 		synchronized(links)
 		{
 			links.forEach((lnk) ->
@@ -288,7 +992,42 @@ public class Network
 			});
 			actors.clear();
 		}
+		if (pool != null)
+		{
+			pool.shutdownNow();
+			try
+			{
+				pool.awaitTermination(1, TimeUnit.MINUTES);
+			}
+			catch (InterruptedException ex)
+			{
+				Log.println(Log.Significance.Error, this+": "+ex);
+			}
+			pool = null;
+		}
+		if (affinityScheduler != null)
+		{
+			affinityScheduler.stop();
+			affinityScheduler = null;
+		}
+		try
+		{
+			stopTrace();
+		}
+		catch (IOException ex)
+		{
+			Log.println(Log.Significance.Error, this+": "+ex);
+		}
+		try
+		{
+			unregisterMBean();
+		}
+		catch (JMException ex)
+		{
+			Log.println(Log.Significance.Error, this+": "+ex);
+		}
 		log(true, "Simulation shut down");
+		Log.flush();
 	}
 	
 	private class TerminationState
@@ -373,15 +1112,28 @@ public class Network
 					if (!terminationAllowed)
 						continue;
 
-					Status s0 = detectStatus();
-					log(false, "TerminationChecker: s0="+s0);
-					if (s0.isActive())
+					Object event = FlightEvents.beginTerminationCheck();
+					long checkStarted = System.nanoTime();
+					boolean quiescent = activity.isQuiescent();
+					metrics.recordTerminationCheck(System.nanoTime() - checkStarted);
+					FlightEvents.endTerminationCheck(event, Network.this, quiescent);
+					if (!quiescent)
 						continue;
-					Status s1 = detectStatus();
-					if (!s1.equals(s0))
+					
+					//all actors passive, remaining messages may be held by delayed links
+					if (virtualClock != null
+						&& virtualClock.advance(timeModel == TimeModel.CONSERVATIVE ? getLookahead() : 0))
+					{
+						if (Log.isEnabled(Log.Significance.MinorNetworkEvent))
+							log(false, "Virtual time advanced to "+getVirtualTimeMS()+" ms");
+						//recheck even if no actor is activated by the delivery
+						wake();
 						continue;
+					}
 					
-					log(true,"Termination detected: <"+s0+"> == <"+s1+">");
+					log(true,"Termination detected: "+activity);
+					if (timeWarp != null)
+						timeWarp.commitAll();
 					
 					terminated.set();
 					log(false, "TerminationChecker: Exit");
@@ -475,6 +1227,16 @@ public class Network
 		checkThread.wake();
 	}
 	
+	/**
+	 * Signals termination detected by other means than the termination
+	 * checker
+	 */
+	void signalTerminated()
+	{
+		log(true, "Termination detected");
+		terminated.set();
+	}
+	
 	/**
 	 * Blocks the local thread until termination is detected
 	 * @throws InterruptedException Throws if the local thread was externally
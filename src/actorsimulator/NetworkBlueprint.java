@@ -89,6 +89,16 @@ public class NetworkBlueprint
 	 * Links between actors
 	 */
 	public final Link[] links;
+	/**
+	 * Maximum number of pending messages per actor mailbox.
+	 * 0 indicates unbounded mailboxes
+	 */
+	public final int mailboxCapacity;
+	/**
+	 * Policy applied by bounded mailboxes when full.
+	 * Null if mailboxes are unbounded
+	 */
+	public final Mailbox.OverflowPolicy overflowPolicy;
 	
 	
 	/**
@@ -99,15 +109,36 @@ public class NetworkBlueprint
 	 * @param links Array of links. May be empty or null
 	 */
 	public NetworkBlueprint(int numNodes, IntFunction<ActorLogic> logicFactory, Link[] links)
+	{
+		this(numNodes,logicFactory,links,0,null);
+	}
+	
+	/**
+	 * Constructs a new topology with bounded actor mailboxes
+	 * @param numNodes Number of nodes in the local topology
+	 * @param logicFactory Factory for new actor logics. Must not be null
+	 * if numNodes is greater than 0.
+	 * @param links Array of links. May be empty or null
+	 * @param mailboxCapacity Maximum number of pending messages per actor.
+	 * 0 or less for unbounded
+	 * @param overflowPolicy Policy to apply when a mailbox is full.
+	 * Must not be null if mailboxCapacity is positive
+	 */
+	public NetworkBlueprint(int numNodes, IntFunction<ActorLogic> logicFactory, Link[] links,
+			int mailboxCapacity, Mailbox.OverflowPolicy overflowPolicy)
 	{
 		if (numNodes < 0)
 			throw new IllegalArgumentException("numNodes is negative");
 		if (logicFactory == null && numNodes > 0)
 			throw new IllegalArgumentException("logicFactory is null");
+		if (mailboxCapacity > 0 && overflowPolicy == null)
+			throw new IllegalArgumentException("overflowPolicy is null");
 
 		this.numActors = numNodes;	
 		this.logicFactory = logicFactory;
 		this.links = links;
+		this.mailboxCapacity = Math.max(mailboxCapacity, 0);
+		this.overflowPolicy = this.mailboxCapacity > 0 ? overflowPolicy : null;
 	}
 	
 	public NetworkBlueprint(int numNodes, IntFunction<ActorLogic> logicFactory, List<Link> links)
@@ -115,6 +146,19 @@ public class NetworkBlueprint
 		this(numNodes,logicFactory,links.toArray(new Link[0]));
 	}
 	
+	/**
+	 * Creates a copy of the local blueprint with bounded actor mailboxes
+	 * @param capacity Maximum number of pending messages per actor.
+	 * 0 or less for unbounded
+	 * @param policy Policy to apply when a mailbox is full.
+	 * Must not be null if capacity is positive
+	 * @return New blueprint
+	 */
+	public NetworkBlueprint withMailboxCapacity(int capacity, Mailbox.OverflowPolicy policy)
+	{
+		return new NetworkBlueprint(numActors,logicFactory,links,capacity,policy);
+	}
+	
 	/**
 	 * Implements the local topology in the specified network
 	 * @param n Network to implement the topology in
@@ -125,7 +169,7 @@ public class NetworkBlueprint
 			return;
 		ActorControl[] newNodes = new ActorControl[numActors];
 		for (int i = 0; i < numActors; i++)
-			newNodes[i] = n.instantiate(logicFactory.apply(i));
+			newNodes[i] = n.instantiate(logicFactory.apply(i),mailboxCapacity,overflowPolicy);
 		if (links != null)
 			for (NetworkBlueprint.Link lnk : links)
 			{
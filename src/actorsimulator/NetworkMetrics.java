@@ -0,0 +1,216 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Network metrics registry.
+ * Network-wide counters are kept here, per-actor counters by the actors
+ * themselves. All counters are striped, so that updating them never
+ * contends between threads
+ */
+final class NetworkMetrics implements NetworkMetricsMXBean
+{
+	private final Network network;
+	private final LongAdder terminationChecks = new LongAdder();
+	private final LongAdder terminationCheckNanos = new LongAdder();
+	private final LongAccumulator maxTerminationCheckNanos = new LongAccumulator(Math::max, 0);
+	private final LongAdder actorThreads = new LongAdder();
+	private volatile boolean actorTiming = false;
+	
+	NetworkMetrics(Network network)
+	{
+		this.network = network;
+	}
+	
+	/**
+	 * Records a completed termination check
+	 * @param nanos Duration of the check
+	 */
+	void recordTerminationCheck(long nanos)
+	{
+		terminationChecks.increment();
+		terminationCheckNanos.add(nanos);
+		maxTerminationCheckNanos.accumulate(nanos);
+	}
+	
+	/**
+	 * Wraps an actor thread body to keep track of running actor threads
+	 * @param r Body to wrap
+	 * @return Counting body
+	 */
+	Runnable countThread(Runnable r)
+	{
+		return () ->
+		{
+			actorThreads.increment();
+			try
+			{
+				r.run();
+			}
+			finally
+			{
+				actorThreads.decrement();
+			}
+		};
+	}
+	
+	@Override
+	public boolean isActorTimingEnabled()
+	{
+		return actorTiming;
+	}
+
+	@Override
+	public void setActorTimingEnabled(boolean enabled)
+	{
+		actorTiming = enabled;
+	}
+	
+	@Override
+	public int getActorCount()
+	{
+		return network.getActorArray().length;
+	}
+
+	@Override
+	public int getLinkCount()
+	{
+		return network.getLinkArray().length;
+	}
+
+	@Override
+	public boolean isTerminated()
+	{
+		return network.hasTerminated();
+	}
+
+	@Override
+	public long getMessagesSent()
+	{
+		long rs = 0;
+		for (ActorControl a : network.getActorArray())
+			rs += a.getStatus().sentMessages;
+		return rs;
+	}
+
+	@Override
+	public long getMessagesReceived()
+	{
+		long rs = 0;
+		for (ActorControl a : network.getActorArray())
+			if (a instanceof ActorControlImpl)
+				rs += ((ActorControlImpl)a).countMessagesIn();
+		return rs;
+	}
+
+	@Override
+	public long getMailboxDepth()
+	{
+		long rs = 0;
+		for (ActorControl a : network.getActorArray())
+			if (a instanceof ActorControlImpl)
+				rs += ((ActorControlImpl)a).getMailboxDepth();
+		return rs;
+	}
+
+	@Override
+	public long getDelayedMessagesInFlight()
+	{
+		long rs = 0;
+		for (AbstractLink l : network.getLinkArray())
+			if (l instanceof DelayedLink)
+				rs += ((DelayedLink)l).countInFlight();
+		return rs;
+	}
+
+	@Override
+	public long getMailboxOverflows()
+	{
+		long rs = 0;
+		for (Mailbox.OverflowPolicy p : Mailbox.OverflowPolicy.values())
+			rs += network.countMailboxOverflows(p);
+		return rs;
+	}
+
+	@Override
+	public long getTerminationChecks()
+	{
+		return terminationChecks.sum();
+	}
+
+	@Override
+	public double getTerminationCheckMillis()
+	{
+		return terminationCheckNanos.sum() / 1e6;
+	}
+
+	@Override
+	public double getMaxTerminationCheckMicros()
+	{
+		return maxTerminationCheckNanos.get() / 1e3;
+	}
+
+	@Override
+	public int getActorThreadCount()
+	{
+		return actorThreads.intValue();
+	}
+
+	@Override
+	public int getPoolThreadCount()
+	{
+		ForkJoinPool pool = network.getPool();
+		AffinityScheduler affinity = network.getAffinityScheduler();
+		return (pool != null ? pool.getPoolSize() : 0) + (affinity != null ? affinity.countThreads() : 0);
+	}
+
+	@Override
+	public int getActivePoolThreadCount()
+	{
+		ForkJoinPool pool = network.getPool();
+		AffinityScheduler affinity = network.getAffinityScheduler();
+		return (pool != null ? pool.getActiveThreadCount() : 0) + (affinity != null ? affinity.countActiveThreads() : 0);
+	}
+
+	@Override
+	public ActorMetrics[] getActors()
+	{
+		ArrayList<ActorMetrics> rs = new ArrayList<>();
+		for (ActorControl a : network.getActorArray())
+			if (a instanceof ActorControlImpl)
+				rs.add(((ActorControlImpl)a).getMetrics());
+		return rs.toArray(new ActorMetrics[rs.size()]);
+	}
+
+	@Override
+	public LinkMetrics[] getDelayedLinks()
+	{
+		ArrayList<LinkMetrics> rs = new ArrayList<>();
+		for (AbstractLink l : network.getLinkArray())
+			if (l instanceof DelayedLink)
+			{
+				DelayedLink d = (DelayedLink)l;
+				rs.add(new LinkMetrics(d.getSourceActor().toString(), d.getDestinationActor().toString(),
+						d.getDelayMS(), d.countInFlight()));
+			}
+		return rs.toArray(new LinkMetrics[rs.size()]);
+	}
+}
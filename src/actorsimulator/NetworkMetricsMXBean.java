@@ -0,0 +1,190 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+/**
+ * Live runtime metrics of a network, as exposed via JMX.
+ * Register using Network.registerMBean(), or query directly via
+ * Network.getMetrics().
+ * All values are sampled without stopping the network, and may be
+ * mutually inconsistent by a few in-flight messages
+ */
+public interface NetworkMetricsMXBean
+{
+	/**
+	 * Snapshot of the metrics of a single actor
+	 */
+	public static final class ActorMetrics
+	{
+		private final String name;
+		private final String status;
+		private final long mailboxDepth, messagesIn, messagesOut;
+		private final double activeMillis;
+		
+		public ActorMetrics(String name, String status, long mailboxDepth, long messagesIn, long messagesOut, double activeMillis)
+		{
+			this.name = name;
+			this.status = status;
+			this.mailboxDepth = mailboxDepth;
+			this.messagesIn = messagesIn;
+			this.messagesOut = messagesOut;
+			this.activeMillis = activeMillis;
+		}
+		
+		public String getName()
+		{
+			return name;
+		}
+		
+		/**
+		 * @return Actor.ThreadStatus name
+		 */
+		public String getStatus()
+		{
+			return status;
+		}
+		
+		/**
+		 * @return Messages received but not yet taken by the actor logic
+		 */
+		public long getMailboxDepth()
+		{
+			return mailboxDepth;
+		}
+		
+		/**
+		 * @return Messages delivered to the actor's mailbox
+		 */
+		public long getMessagesIn()
+		{
+			return messagesIn;
+		}
+		
+		/**
+		 * @return Messages sent by the actor
+		 */
+		public long getMessagesOut()
+		{
+			return messagesOut;
+		}
+		
+		/**
+		 * @return Time spent executing the actor logic, excluding blocking
+		 * receives. Only accumulated while actor timing is enabled
+		 */
+		public double getActiveMillis()
+		{
+			return activeMillis;
+		}
+	}
+	
+	/**
+	 * Snapshot of the metrics of a single delayed link
+	 */
+	public static final class LinkMetrics
+	{
+		private final String source, destination;
+		private final int delayMS, inFlight;
+		
+		public LinkMetrics(String source, String destination, int delayMS, int inFlight)
+		{
+			this.source = source;
+			this.destination = destination;
+			this.delayMS = delayMS;
+			this.inFlight = inFlight;
+		}
+		
+		public String getSource()
+		{
+			return source;
+		}
+		
+		public String getDestination()
+		{
+			return destination;
+		}
+		
+		public int getDelayMS()
+		{
+			return delayMS;
+		}
+		
+		/**
+		 * @return Messages sent but not yet delivered
+		 */
+		public int getInFlight()
+		{
+			return inFlight;
+		}
+	}
+	
+	int		getActorCount();
+	int		getLinkCount();
+	boolean	isTerminated();
+	
+	long	getMessagesSent();
+	long	getMessagesReceived();
+	/**
+	 * @return Sum of all actor mailbox depths
+	 */
+	long	getMailboxDepth();
+	/**
+	 * @return Sum of all messages held by delayed links
+	 */
+	long	getDelayedMessagesInFlight();
+	/**
+	 * @return Messages that overflowed bounded mailboxes, all policies
+	 */
+	long	getMailboxOverflows();
+	
+	/**
+	 * @return Number of termination checks executed by the checker thread
+	 */
+	long	getTerminationChecks();
+	/**
+	 * @return Total time spent in termination checks
+	 */
+	double	getTerminationCheckMillis();
+	/**
+	 * @return Longest single termination check
+	 */
+	double	getMaxTerminationCheckMicros();
+	
+	/**
+	 * @return Currently running dedicated actor threads (platform or virtual)
+	 */
+	int		getActorThreadCount();
+	/**
+	 * @return Worker threads of the shared pool or affinity groups, 0 if not
+	 * pooled
+	 */
+	int		getPoolThreadCount();
+	/**
+	 * @return Pool workers currently executing or stealing tasks
+	 */
+	int		getActivePoolThreadCount();
+	
+	/**
+	 * Checks whether active time of actors is measured.
+	 * Costs two clock reads per activation and blocking receive
+	 * @return True if enabled
+	 */
+	boolean	isActorTimingEnabled();
+	void	setActorTimingEnabled(boolean enabled);
+	
+	ActorMetrics[]	getActors();
+	LinkMetrics[]	getDelayedLinks();
+}
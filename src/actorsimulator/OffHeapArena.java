@@ -0,0 +1,156 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-network arena of off-heap memory for large binary message payloads.
+ * Payloads are carved from direct ByteBuffer regions in power-of-two size
+ * classes, and returned to a per-class free list once their last reference
+ * is released, so that payload memory is reused rather than left to the
+ * garbage collector.
+ * Requests larger than the largest size class are served by dedicated direct
+ * buffers, which are not reused.
+ * All methods are thread safe.
+ */
+public class OffHeapArena
+{
+	/**
+	 * Smallest block size, as power of two
+	 */
+	private static final int MIN_SHIFT = 8;
+	/**
+	 * Largest pooled block size, as power of two
+	 */
+	private static final int MAX_SHIFT = 20;
+	/**
+	 * Size of the regions blocks are carved from
+	 */
+	private static final int REGION_SIZE = 1 << MAX_SHIFT;
+	
+	private final SizeClass[] classes = new SizeClass[MAX_SHIFT - MIN_SHIFT + 1];
+	private final AtomicLong reservedBytes = new AtomicLong(),
+							usedBytes = new AtomicLong();
+	
+	public OffHeapArena()
+	{
+		for (int i = 0; i < classes.length; i++)
+			classes[i] = new SizeClass(MIN_SHIFT + i);
+	}
+	
+	/**
+	 * Free blocks and carving state of one size class
+	 */
+	private class SizeClass
+	{
+		private final int blockSize;
+		private final ConcurrentLinkedQueue<OffHeapPayload> free = new ConcurrentLinkedQueue<>();
+		/**
+		 * Region currently being carved, and its next free offset.
+		 * Guarded by this
+		 */
+		private ByteBuffer region = null;
+		private int offset = 0;
+
+		private SizeClass(int shift)
+		{
+			blockSize = 1 << shift;
+		}
+		
+		private OffHeapPayload take()
+		{
+			OffHeapPayload rs = free.poll();
+			return rs != null ? rs : carve();
+		}
+		
+		private synchronized OffHeapPayload carve()
+		{
+			if (region == null || offset + blockSize > region.capacity())
+			{
+				region = ByteBuffer.allocateDirect(Math.max(REGION_SIZE, blockSize));
+				reservedBytes.addAndGet(region.capacity());
+				offset = 0;
+			}
+			region.limit(offset + blockSize).position(offset);
+			ByteBuffer block = region.slice();
+			offset += blockSize;
+			return new OffHeapPayload(OffHeapArena.this, block, this);
+		}
+	}
+	
+	/**
+	 * Allocates a new payload.
+	 * The returned payload holds one reference, owned by the caller.
+	 * Its content is undefined
+	 * @param length Payload length in bytes. Must not be negative
+	 * @return New payload. Never null
+	 */
+	public OffHeapPayload allocate(int length)
+	{
+		if (length < 0)
+			throw new IllegalArgumentException("Negative payload length: "+length);
+		OffHeapPayload rs;
+		int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(length - 1, 0)));
+		if (shift > MAX_SHIFT)
+		{
+			ByteBuffer block = ByteBuffer.allocateDirect(length);
+			reservedBytes.addAndGet(length);
+			rs = new OffHeapPayload(this, block, null);
+		}
+		else
+			rs = classes[shift - MIN_SHIFT].take();
+		usedBytes.addAndGet(rs.capacity());
+		rs.reset(length);
+		return rs;
+	}
+	
+	/**
+	 * Returns the block of a payload whose last reference was released
+	 * @param payload Payload to recycle
+	 * @param owner Size class the payload was carved from, or null if it
+	 * used a dedicated buffer
+	 */
+	void free(OffHeapPayload payload, Object owner)
+	{
+		usedBytes.addAndGet(-payload.capacity());
+		if (owner == null)
+			reservedBytes.addAndGet(-payload.capacity());
+		else
+			((SizeClass)owner).free.add(payload);
+	}
+	
+	/**
+	 * Fetches the total amount of off-heap memory reserved by the local arena,
+	 * including free blocks
+	 * @return Reserved bytes
+	 */
+	public long getReservedBytes()
+	{
+		return reservedBytes.get();
+	}
+	
+	/**
+	 * Fetches the capacity of all currently referenced payloads
+	 * @return Used bytes
+	 */
+	public long getUsedBytes()
+	{
+		return usedBytes.get();
+	}
+}
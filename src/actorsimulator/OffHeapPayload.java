@@ -0,0 +1,225 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reference counted binary message payload, backed by off-heap memory of an
+ * OffHeapArena.
+ * A payload is created holding one reference. Sending a payload as message
+ * content transfers one reference to the receiver, which must either
+ * forward it, again transferring the reference, or release it. To send the
+ * same payload to multiple receivers, retain one additional reference per
+ * extra receiver first. Once the last reference is released, the memory is
+ * reused for other payloads, and the local object must no longer be
+ * accessed.
+ * Accessors use absolute indices, and do not modify any shared state, so
+ * that multiple holders may read concurrently.
+ */
+public final class OffHeapPayload
+{
+	private final OffHeapArena arena;
+	private final ByteBuffer block;
+	/**
+	 * Size class the block was carved from. Null for dedicated buffers
+	 */
+	private final Object owner;
+	private final AtomicInteger references = new AtomicInteger();
+	private int length;
+	
+	OffHeapPayload(OffHeapArena arena, ByteBuffer block, Object owner)
+	{
+		this.arena = arena;
+		this.block = block;
+		this.owner = owner;
+	}
+	
+	/**
+	 * Reinitializes a newly allocated payload with one reference
+	 * @param length Payload length
+	 */
+	void reset(int length)
+	{
+		this.length = length;
+		references.set(1);
+	}
+	
+	/**
+	 * Fetches the payload length
+	 * @return Length in bytes
+	 */
+	public int length()
+	{
+		return length;
+	}
+	
+	/**
+	 * Fetches the size of the underlying block
+	 * @return Block capacity in bytes. At least length()
+	 */
+	public int capacity()
+	{
+		return block.capacity();
+	}
+	
+	/**
+	 * Fetches the number of currently held references
+	 * @return Reference count. 0 if released
+	 */
+	public int getReferenceCount()
+	{
+		return references.get();
+	}
+	
+	/**
+	 * Acquires one additional reference
+	 * @return this
+	 */
+	public OffHeapPayload retain()
+	{
+		return retain(1);
+	}
+	
+	/**
+	 * Acquires additional references
+	 * @param count Number of references to acquire. Must not be negative
+	 * @return this
+	 * @throws IllegalStateException if the payload was already released
+	 */
+	public OffHeapPayload retain(int count)
+	{
+		if (count < 0)
+			throw new IllegalArgumentException("Negative reference count: "+count);
+		while (true)
+		{
+			int refs = references.get();
+			if (refs <= 0)
+				throw new IllegalStateException("Payload already released");
+			if (references.compareAndSet(refs, refs + count))
+				return this;
+		}
+	}
+	
+	/**
+	 * Releases one reference.
+	 * Returns the underlying memory to the arena if it was the last
+	 * @return True if the last reference was released
+	 * @throws IllegalStateException if the payload was already released
+	 */
+	public boolean release()
+	{
+		int refs = references.decrementAndGet();
+		if (refs < 0)
+		{
+			references.incrementAndGet();
+			throw new IllegalStateException("Payload already released");
+		}
+		if (refs > 0)
+			return false;
+		arena.free(this, owner);
+		return true;
+	}
+	
+	/**
+	 * Creates a view of the payload.
+	 * The returned buffer has its own position and limit, and covers exactly
+	 * the payload. It is only valid while a reference is held
+	 * @return New buffer view positioned at 0
+	 */
+	public ByteBuffer buffer()
+	{
+		ByteBuffer rs = block.duplicate();
+		rs.limit(length);
+		return rs;
+	}
+	
+	private int check(int index, int size)
+	{
+		if (index < 0 || size > length - index)
+			throw new IndexOutOfBoundsException("Index "+index+" (+"+size+") outside payload of length "+length);
+		return index;
+	}
+	
+	public byte getByte(int index)
+	{
+		return block.get(check(index, 1));
+	}
+	
+	public int getInt(int index)
+	{
+		return block.getInt(check(index, 4));
+	}
+	
+	public long getLong(int index)
+	{
+		return block.getLong(check(index, 8));
+	}
+	
+	public double getDouble(int index)
+	{
+		return block.getDouble(check(index, 8));
+	}
+	
+	public void putByte(int index, byte value)
+	{
+		block.put(check(index, 1), value);
+	}
+	
+	public void putInt(int index, int value)
+	{
+		block.putInt(check(index, 4), value);
+	}
+	
+	public void putLong(int index, long value)
+	{
+		block.putLong(check(index, 8), value);
+	}
+	
+	public void putDouble(int index, double value)
+	{
+		block.putDouble(check(index, 8), value);
+	}
+	
+	/**
+	 * Copies payload bytes to an array
+	 * @param index Payload offset to copy from
+	 * @param dst Array to copy to
+	 * @param offset Offset in dst
+	 * @param count Number of bytes to copy
+	 */
+	public void get(int index, byte[] dst, int offset, int count)
+	{
+		ByteBuffer view = block.duplicate();
+		view.position(check(index, count));
+		view.get(dst, offset, count);
+	}
+	
+	/**
+	 * Copies bytes from an array into the payload
+	 * @param index Payload offset to copy to
+	 * @param src Array to copy from
+	 * @param offset Offset in src
+	 * @param count Number of bytes to copy
+	 */
+	public void put(int index, byte[] src, int offset, int count)
+	{
+		ByteBuffer view = block.duplicate();
+		view.position(check(index, count));
+		view.put(src, offset, count);
+	}
+}
@@ -15,17 +15,23 @@
  */
 package actorsimulator;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 /**
- *
+ * Outgoing links of an actor.
+ * Lookups and traversals are lock-free. Modifications are serialized by a
+ * lock, which may also be held by callers to atomically check and add
+ * links.
+ * Links are kept in an append-only array. Readers see a consistent prefix
+ * of it, published by the volatile size field
  * @author IronFox
  */
 public class OutgoingLinks
@@ -33,45 +39,109 @@ public class OutgoingLinks
 	
 	private static final Random rand = new Random();
 	private final Lock outgoingLock = new ReentrantLock();
-	private final ArrayList<ActorLink> outgoing = new ArrayList<>();
+	/**
+	 * Links by destination actor
+	 */
+	private final ConcurrentHashMap<Actor, ActorLink> index = new ConcurrentHashMap<>();
+	/**
+	 * Links in order of addition. Entries below size are never changed.
+	 * Replaced by a larger copy when full
+	 */
+	private volatile ActorLink[] outgoing = new ActorLink[4];
+	/**
+	 * Number of published links. Written after outgoing
+	 */
+	private volatile int size = 0;
 
 	public ActorLink findConnectionTo(Actor remote)
 	{
-		Ref<ActorLink> link = new Ref<>();
-		doLocked(() ->
-		{
-			outgoing.stream().filter((lnk) -> (lnk.getDestinationActor() == remote)).forEachOrdered((lnk) ->
-			{
-				link.ref = lnk;
-			});
-		});
-		return link.ref;
+		return index.get(remote);
 	}
 	
 	public int count()
 	{
-		return outgoing.size();
+		return size;
 	}
 	
 	public void visitAll(Consumer<? super ActorLink> visitor)
 	{
-		doLocked(() -> outgoing.forEach(visitor));
+		int n = size;
+		ActorLink[] links = outgoing;
+		for (int i = 0; i < n; i++)
+			visitor.accept(links[i]);
+	}
+	
+	/**
+	 * Visits all links in parallel, splitting the current snapshot across
+	 * the given pool. Returns once all links have been visited.
+	 * Visit order is undefined
+	 * @param visitor Visitor to apply. Must be thread safe
+	 * @param pool Pool to execute on
+	 * @param grain Number of links below which a slice is visited serially
+	 */
+	void visitAllParallel(Consumer<? super ActorLink> visitor, ForkJoinPool pool, int grain)
+	{
+		int n = size;
+		pool.invoke(new Slice(outgoing, 0, n, visitor, grain));
+	}
+	
+	private static class Slice extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final transient ActorLink[] links;
+		private final int from, to, grain;
+		private final transient Consumer<? super ActorLink> visitor;
+
+		public Slice(ActorLink[] links, int from, int to,
+				Consumer<? super ActorLink> visitor, int grain)
+		{
+			this.links = links;
+			this.from = from;
+			this.to = to;
+			this.visitor = visitor;
+			this.grain = grain;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (to - from <= grain)
+			{
+				for (int i = from; i < to; i++)
+					visitor.accept(links[i]);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new Slice(links, from, mid, visitor, grain),
+					new Slice(links, mid, to, visitor, grain));
+		}
 	}
 	
 
 	public void		doLocked(Runnable action)
+	{
+		lock();
+		try
+		{
+			action.run();
+		}
+		finally
+		{
+			unlock();
+		}
+	}
+	
+	/**
+	 * Acquires the modification lock.
+	 * Reentrant. Must be paired with unlock()
+	 * @throws DeadlockError if the lock could not be acquired in time
+	 */
+	void lock()
 	{
 		try
 		{
 			int ms = rand.nextInt(500)+500;
-			if (outgoingLock.tryLock(ms, TimeUnit.MILLISECONDS)) {
-				try {
-					action.run();
-				} finally {
-					outgoingLock.unlock();
-				}
-			}
-			else
+			if (!outgoingLock.tryLock(ms, TimeUnit.MILLISECONDS))
 				throw new DeadlockError("Failed to acquire lock in "+ms
 						+" ms. Deadlock assumed");
 		}
@@ -85,20 +155,39 @@ public class OutgoingLinks
 		}
 	}
 	
+	/**
+	 * Releases the modification lock acquired via lock()
+	 */
+	void unlock()
+	{
+		outgoingLock.unlock();
+	}
+	
 	public void add(ActorLink link)
 	{
-		doLocked(() -> outgoing.add(link));
+		lock();
+		try
+		{
+			ActorLink[] links = outgoing;
+			int n = size;
+			if (n == links.length)
+			{
+				links = Arrays.copyOf(links, n * 2);
+				outgoing = links;
+			}
+			links[n] = link;
+			index.put(link.getDestinationActor(), link);
+			size = n + 1;
+		}
+		finally
+		{
+			unlock();
+		}
 	}
 	
 	public ActorLink getAny()
 	{
-		Ref<ActorLink> link = new Ref<>();
-		doLocked(() ->
-		{
-			if (!outgoing.isEmpty())
-				link.ref = outgoing.get(0);
-		});
-		return link.ref;
+		return size > 0 ? outgoing[0] : null;
 	}
 	
 
@@ -0,0 +1,103 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+/**
+ * Primitive payload received via an IntLink, LongLink, or DoubleLink.
+ * Instances are owned by the receiving actor and reused: a PrimitiveMessage
+ * returned by tryGetNextPrimitive() is only valid until the next primitive
+ * message is fetched, or execute() returns.
+ * The payload is stored as 64 raw bits. It is up to the receiver to read it
+ * the way it was sent.
+ */
+public final class PrimitiveMessage
+{
+	private AbstractLink via;
+	private long value;
+	private long time;
+	
+	PrimitiveMessage()
+	{}
+	
+	/**
+	 * Reinitializes the local view to the given payload
+	 * @param via Link the payload was sent along
+	 * @param value Raw payload bits
+	 * @param time Delivery time
+	 */
+	void set(AbstractLink via, long value, long time)
+	{
+		this.via = via;
+		this.value = value;
+		this.time = time;
+	}
+	
+	/**
+	 * Fetches the payload as sent via IntLink.sendInt()
+	 * @return Payload
+	 */
+	public int getInt()
+	{
+		return (int)value;
+	}
+	
+	/**
+	 * Fetches the payload as sent via LongLink.sendLong()
+	 * @return Payload
+	 */
+	public long getLong()
+	{
+		return value;
+	}
+	
+	/**
+	 * Fetches the payload as sent via DoubleLink.sendDouble()
+	 * @return Payload
+	 */
+	public double getDouble()
+	{
+		return Double.longBitsToDouble(value);
+	}
+	
+	/**
+	 * Fetches the virtual time at which the payload was delivered.
+	 * Always 0 unless the network uses a virtual time model
+	 * @return Delivery time in nanoseconds since the simulation start
+	 */
+	public long getTime()
+	{
+		return time;
+	}
+	
+	/**
+	 * Fetches the sender of the local payload
+	 * @return Sending actor. Never null
+	 */
+	public Actor getSender()
+	{
+		return via.getSourceActor();
+	}
+	
+	/**
+	 * Fetches a reverse link to reply on.
+	 * May be null
+	 * @return Link to the sending actor if such exists, or null if not
+	 */
+	public ActorLink getLinkToSender()
+	{
+		return via.getReverse();
+	}
+}
@@ -0,0 +1,195 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+import java.util.function.Consumer;
+
+/**
+ * Unbounded queue of primitive payloads, stored in parallel ring buffers
+ * rather than as individual objects.
+ * Designed to accept writes from multiple threads, but reads only from one
+ * thread. Writers and the reader are serialized by the local monitor. The
+ * reader moves payloads out in chunks, so that handlers run without holding
+ * it.
+ */
+class PrimitiveQueue
+{
+	private static final int CHUNK = 64;
+	
+	/**
+	 * Pending payloads, as ring buffer. Guarded by this
+	 */
+	private AbstractLink[] links = new AbstractLink[16];
+	private long[] values = new long[16];
+	private long[] times = new long[16];
+	private int first = 0, count = 0;
+	/**
+	 * Number of pending payloads. Written under the monitor, readable without
+	 */
+	private volatile int size = 0;
+	/**
+	 * Only written by the reader
+	 */
+	private volatile int dispatched = 0;
+	/**
+	 * Chunk buffers of drain(). Only accessed by the reader
+	 */
+	private final AbstractLink[] chunkLinks = new AbstractLink[CHUNK];
+	private final long[] chunkValues = new long[CHUNK], chunkTimes = new long[CHUNK];
+	
+	/**
+	 * Checks whether no payloads are pending
+	 * @return True if empty
+	 */
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+	
+	/**
+	 * Appends a payload
+	 * @param via Link the payload was sent along
+	 * @param value Raw payload bits
+	 * @param time Delivery time
+	 */
+	public synchronized void add(AbstractLink via, long value, long time)
+	{
+		if (count == values.length)
+			grow();
+		int at = (first + count) % values.length;
+		links[at] = via;
+		values[at] = value;
+		times[at] = time;
+		size = ++count;
+	}
+	
+	private void grow()
+	{
+		int cap = values.length * 2;
+		AbstractLink[] l = new AbstractLink[cap];
+		long[] v = new long[cap], t = new long[cap];
+		for (int i = 0; i < count; i++)
+		{
+			int at = (first + i) % values.length;
+			l[i] = links[at];
+			v[i] = values[at];
+			t[i] = times[at];
+		}
+		links = l;
+		values = v;
+		times = t;
+		first = 0;
+	}
+	
+	/**
+	 * Dequeues the next payload, if any.
+	 * May only be called by the reader thread
+	 * @param into View to load the payload into
+	 * @return True if a payload was dequeued, false if empty
+	 */
+	public synchronized boolean poll(PrimitiveMessage into)
+	{
+		if (count == 0)
+			return false;
+		into.set(links[first], values[first], times[first]);
+		links[first] = null;
+		first = (first + 1) % values.length;
+		size = --count;
+		dispatched++;
+		return true;
+	}
+	
+	/**
+	 * Dequeues up to the given number of payloads, and passes them to the
+	 * given sink in order, loaded into the given view.
+	 * May only be called by the reader thread
+	 * @param max Maximum number of payloads to dequeue
+	 * @param view View to load each payload into
+	 * @param sink Sink to receive the view once per payload
+	 * @return Number of dequeued payloads
+	 */
+	public int drain(int max, PrimitiveMessage view, Consumer<? super PrimitiveMessage> sink)
+	{
+		int total = 0;
+		while (total < max)
+		{
+			int n;
+			synchronized (this)
+			{
+				n = Math.min(Math.min(max - total, CHUNK), count);
+				for (int i = 0; i < n; i++)
+				{
+					chunkLinks[i] = links[first];
+					chunkValues[i] = values[first];
+					chunkTimes[i] = times[first];
+					links[first] = null;
+					first = (first + 1) % values.length;
+				}
+				count -= n;
+				size = count;
+			}
+			if (n == 0)
+				break;
+			int handed = 0;
+			try
+			{
+				while (handed < n)
+				{
+					view.set(chunkLinks[handed], chunkValues[handed], chunkTimes[handed]);
+					chunkLinks[handed++] = null;
+					sink.accept(view);
+				}
+			}
+			finally
+			{
+				dispatched += handed;
+				if (handed < n)
+					restore(handed, n);
+			}
+			total += n;
+		}
+		return total;
+	}
+	
+	/**
+	 * Puts chunk payloads that could not be passed on back at the front of
+	 * the queue, because the sink failed
+	 */
+	private synchronized void restore(int from, int to)
+	{
+		while (count + (to - from) > values.length)
+			grow();
+		for (int i = to - 1; i >= from; i--)
+		{
+			first = (first + values.length - 1) % values.length;
+			links[first] = chunkLinks[i];
+			values[first] = chunkValues[i];
+			times[first] = chunkTimes[i];
+			chunkLinks[i] = null;
+		}
+		count += to - from;
+		size = count;
+	}
+	
+	/**
+	 * Retrieves the total number of payloads dequeued since creation
+	 * @return Number of dispatched payloads
+	 */
+	public int countDispatched()
+	{
+		return dispatched;
+	}
+}
@@ -0,0 +1,32 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+/**
+ * Actor logic that lets the runtime recycle message envelopes.
+ * Envelopes delivered to such a logic are owned by the runtime, and only lent
+ * to the logic. A lent Message remains valid until the logic fetches its next
+ * message, a drainMessages() handler returns, or execute() returns, whichever
+ * comes first. After that, the envelope may be reused for another delivery, and
+ * its getters may return unrelated values.
+ * Contents obtained via Message.getContent() are never recycled, and may be
+ * retained freely. The same goes for the sender and reverse link.
+ * Ignored by networks using the OPTIMISTIC time model, which retain
+ * envelopes for re-execution.
+ */
+public interface RecyclingActorLogic extends ActorLogic
+{
+}
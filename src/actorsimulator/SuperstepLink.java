@@ -0,0 +1,159 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Actor link of a network running in SUPERSTEP time model.
+ * Messages sent along this link are buffered until the end of the current
+ * superstep, and delivered as a batch before the next one starts.
+ */
+public class SuperstepLink extends AbstractLink
+{
+	private final SuperstepScheduler scheduler;
+	/**
+	 * Delivery order relative to other links of the same receiver
+	 */
+	final int order;
+	/**
+	 * Messages sent during the current superstep.
+	 * Guarded by this
+	 */
+	private ArrayList<Object> buffer = new ArrayList<>(),
+								spare = new ArrayList<>();
+	/**
+	 * Primitive payloads sent during the current superstep.
+	 * Guarded by this
+	 */
+	private long[] primitives = new long[4],
+					sparePrimitives = new long[4];
+	private int primitiveCount = 0;
+	private boolean dirty = false, terminate = false;
+	
+	SuperstepLink(ActorControl source, ActorControl destination, SuperstepScheduler scheduler, int order)
+	{
+		super(source,destination);
+		this.scheduler = scheduler;
+		this.order = order;
+	}
+
+	@Override
+	public synchronized boolean isIdle()
+	{
+		return buffer.isEmpty() && primitiveCount == 0;
+	}
+
+	@Override
+	public void sendMessage(Object message)
+	{
+		super.signalSend(sizeOf(message));
+		synchronized (this)
+		{
+			if (terminate)
+				return;
+			buffer.add(message);
+			if (dirty)
+				return;
+			dirty = true;
+		}
+		scheduler.markDirty(this);
+	}
+	
+	@Override
+	void sendPrimitive(long value)
+	{
+		super.signalSend(Long.BYTES);
+		synchronized (this)
+		{
+			if (terminate)
+				return;
+			if (primitiveCount == primitives.length)
+				primitives = Arrays.copyOf(primitives, primitiveCount * 2);
+			primitives[primitiveCount++] = value;
+			if (dirty)
+				return;
+			dirty = true;
+		}
+		scheduler.markDirty(this);
+	}
+	
+	@Override
+	public void sendMessages(Object[] messages)
+	{
+		if (messages.length == 0)
+			return;
+		super.signalSend(messages.length, sizeOf(messages));
+		synchronized (this)
+		{
+			if (terminate)
+				return;
+			buffer.addAll(Arrays.asList(messages));
+			if (dirty)
+				return;
+			dirty = true;
+		}
+		scheduler.markDirty(this);
+	}
+	
+	/**
+	 * Delivers all buffered messages in send order.
+	 * Called by the superstep scheduler only, between supersteps
+	 */
+	void deliverAll()
+	{
+		ArrayList<Object> batch;
+		long[] values;
+		int valueCount;
+		synchronized (this)
+		{
+			dirty = false;
+			if (terminate)
+				return;
+			batch = buffer;
+			buffer = spare;
+			spare = batch;
+			values = primitives;
+			valueCount = primitiveCount;
+			primitives = sparePrimitives;
+			primitiveCount = 0;
+			sparePrimitives = values;
+		}
+		if (valueCount > 0)
+			signalDeliver(valueCount);
+		for (int i = 0; i < valueCount; i++)
+			getDestinationMailbox().receivePrimitive(this, values[i], 0);
+		if (batch.isEmpty())
+			return;
+		long now = latencyClock();
+		Message[] envs = new Message[batch.size()];
+		for (int i = 0; i < envs.length; i++)
+			envs[i] = envelope(batch.get(i), 0, now, now);
+		batch.clear();
+		signalDeliver(envs.length);
+		getDestinationMailbox().receiveAll(envs);
+	}
+
+	@Override
+	synchronized void shutdown()
+	{
+		terminate = true;
+		buffer.clear();
+		primitiveCount = 0;
+	}
+	
+}
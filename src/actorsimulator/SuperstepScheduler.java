@@ -0,0 +1,181 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Bulk synchronous parallel execution driver.
+ * Runs the network in supersteps: all messages sent during one superstep
+ * are delivered at once, then all actors with pending input execute in
+ * parallel on the network's pool, followed by a barrier.
+ * Messages are delivered to each receiver ordered by sender, preserving
+ * the send order of each individual sender.
+ * The network terminates once a superstep neither sends messages nor
+ * leaves actors to execute, which makes termination detection scans
+ * unnecessary.
+ */
+class SuperstepScheduler implements Runnable
+{
+	/**
+	 * Minimum number of actors executed per fork-join task
+	 */
+	private static final int GRAIN = 16;
+	
+	private final Network network;
+	private final ConcurrentLinkedQueue<SuperstepLink> dirtyLinks = new ConcurrentLinkedQueue<>();
+	private final ConcurrentLinkedQueue<Runnable> activated = new ConcurrentLinkedQueue<>();
+	private volatile boolean quit = false;
+	private volatile long superstep = 0;
+	private Thread thread = null;
+	
+	SuperstepScheduler(Network network)
+	{
+		this.network = network;
+	}
+
+	@Override
+	public String toString()
+	{
+		return network+": Superstep";
+	}
+	
+	/**
+	 * Fetches the number of completed supersteps
+	 * @return Superstep count
+	 */
+	public long getSuperstep()
+	{
+		return superstep;
+	}
+	
+	/**
+	 * Registers a link with messages to deliver at the end of the current
+	 * superstep.
+	 * Called at most once per link and superstep
+	 * @param link Link to register
+	 */
+	void markDirty(SuperstepLink link)
+	{
+		dirtyLinks.add(link);
+	}
+	
+	/**
+	 * Registers an actor to execute during the next superstep.
+	 * Called at most once per actor and superstep
+	 * @param actor Execution of the actor logic
+	 */
+	void activate(Runnable actor)
+	{
+		activated.add(actor);
+	}
+	
+	public synchronized void start()
+	{
+		if (thread != null)
+			throw new IllegalStateException(this+" already started");
+		thread = new Thread(this);
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	public void stop()
+	{
+		Thread t;
+		synchronized (this)
+		{
+			quit = true;
+			t = thread;
+		}
+		if (t == null)
+			return;
+		t.interrupt();
+		try
+		{
+			t.join();
+		}
+		catch (InterruptedException ex)
+		{
+			Log.println(Log.Significance.Error, this+": "+ex);
+		}
+	}
+
+	@Override
+	public void run()
+	{
+		ArrayList<SuperstepLink> links = new ArrayList<>();
+		ArrayList<Runnable> actors = new ArrayList<>();
+		while (!quit)
+		{
+			SuperstepLink link;
+			while ((link = dirtyLinks.poll()) != null)
+				links.add(link);
+			links.sort((a,b) -> Integer.compare(a.order, b.order));
+			for (SuperstepLink l : links)
+				l.deliverAll();
+			links.clear();
+			
+			Runnable actor;
+			while ((actor = activated.poll()) != null)
+				actors.add(actor);
+			if (actors.isEmpty())
+			{
+				Log.println(Log.Significance.MajorNetworkEvent, this+": No activity after "+superstep+" superstep(s)");
+				network.signalTerminated();
+				return;
+			}
+			ForkJoinPool pool = network.getPool();
+			if (pool == null)
+				return;
+			pool.invoke(new Step(actors.toArray(new Runnable[actors.size()]), 0, actors.size()));
+			actors.clear();
+			superstep++;
+		}
+	}
+	
+	/**
+	 * Executes a range of actors in parallel
+	 */
+	private static class Step extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final transient Runnable[] actors;
+		private final int from, to;
+		
+		private Step(Runnable[] actors, int from, int to)
+		{
+			this.actors = actors;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (to - from <= GRAIN)
+			{
+				for (int i = from; i < to; i++)
+					actors[i].run();
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new Step(actors, from, mid), new Step(actors, mid, to));
+		}
+	}
+}
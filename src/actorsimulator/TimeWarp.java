@@ -0,0 +1,640 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Optimistic (Time Warp) execution engine.
+ * Each actor is a logical process executing its messages speculatively in
+ * virtual time order, as soon as they arrive. If a message arrives with a
+ * timestamp earlier than already processed messages (straggler), the actor
+ * is rolled back to a state checkpoint, and messages sent by undone
+ * executions are cancelled via anti-messages.
+ * Global virtual time (GVT) is periodically computed while all processes
+ * are paused between steps. History older than GVT is committed, which
+ * emits deferred log output, and discarded.
+ * Also serves as delivery scheduler, delivering delayed messages
+ * immediately, stamped with their virtual delivery time.
+ */
+class TimeWarp implements DeliveryScheduler
+{
+	/**
+	 * Maximum number of events processed per process step
+	 */
+	private static final int BATCH = 64;
+	/**
+	 * Uncommitted history length of a single process that triggers a GVT
+	 * computation
+	 */
+	private static final int FOSSIL_THRESHOLD = 1024;
+	/**
+	 * Optimism window, as multiple of the network's lookahead.
+	 * Events further ahead of GVT are held back, limiting rollback cascades
+	 */
+	private static final long WINDOW_FACTOR = 16;
+	
+	private static final ThreadLocal<Process> EXECUTING = new ThreadLocal<>();
+	
+	/**
+	 * Held shared by processes while stepping, exclusively by GVT
+	 * computation
+	 */
+	private final ReentrantReadWriteLock stepLock = new ReentrantReadWriteLock();
+	/**
+	 * Number of GVT computations requested since the last one started
+	 */
+	private final AtomicInteger gvtRequests = new AtomicInteger();
+	/**
+	 * Number of processes waiting for the optimism window to advance
+	 */
+	private final AtomicInteger blockedProcesses = new AtomicInteger();
+	private final ArrayList<Process> processes = new ArrayList<>();
+	/**
+	 * Orders messages received from outside any process step
+	 */
+	private final AtomicLong externalSeq = new AtomicLong();
+	private final Network network;
+	private final ActivityCounter activity;
+	private volatile long gvt = 0;
+	/**
+	 * End of the optimism window. Initially closed, so that the first step
+	 * computes the initial GVT
+	 */
+	private volatile long horizon = Long.MIN_VALUE;
+	private final LongAdder processedEvents = new LongAdder(),
+							rolledBackEvents = new LongAdder(),
+							committedEvents = new LongAdder();
+	/**
+	 * Anti-messages sent to cancel messages sent by rolled back events.
+	 * Not counted as sent messages of the respective actors
+	 */
+	private final LongAdder antiMessages = new LongAdder();
+	
+	TimeWarp(Network network)
+	{
+		this.network = network;
+		activity = network.getActivityCounter();
+	}
+
+	@Override
+	public String toString()
+	{
+		return network+": TimeWarp";
+	}
+	
+	/**
+	 * Fetches the most recently computed global virtual time
+	 * @return GVT in nanoseconds
+	 */
+	public long getGvt()
+	{
+		return gvt;
+	}
+
+	@Override
+	public long now(ActorControl sender)
+	{
+		return sender.getLocalTime();
+	}
+
+	@Override
+	public boolean isVirtual()
+	{
+		return true;
+	}
+
+	@Override
+	public void schedule(DelayedLink link)
+	{
+		while (link.deliverNext())
+		{}
+	}
+
+	@Override
+	public void stop()
+	{}
+	
+	/**
+	 * Registers a new logical process
+	 * @param actor Actor to represent
+	 * @param logic Logic executed by the actor
+	 * @return New process
+	 */
+	Process register(ActorControlImpl actor, CheckpointableActorLogic logic)
+	{
+		stepLock.writeLock().lock();
+		try
+		{
+			Process p = new Process(processes.size(), actor, logic);
+			processes.add(p);
+			return p;
+		}
+		finally
+		{
+			stepLock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Computes GVT and commits all history older than it.
+	 * Blocks until all processes have finished their current step.
+	 * Must not be called while stepping
+	 */
+	private void computeGvt()
+	{
+		stepLock.writeLock().lock();
+		try
+		{
+			long t = Long.MAX_VALUE, last = gvt;
+			for (Process p : processes)
+			{
+				t = Math.min(t, p.getMinUnprocessedTime());
+				last = Math.max(last, p.getLastProcessedTime());
+			}
+			//nothing left to process: GVT is the time of the final event
+			gvt = t != Long.MAX_VALUE ? t : last;
+			long h = gvt + Math.max(network.getLookahead(), 1000000L) * WINDOW_FACTOR;
+			boolean advanced = h != horizon;
+			horizon = h;
+			for (Process p : processes)
+			{
+				p.collectFossils(t);
+				if (advanced && p.blocked)
+				{
+					p.blocked = false;
+					blockedProcesses.decrementAndGet();
+					p.schedule();
+				}
+			}
+		}
+		finally
+		{
+			stepLock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Computes GVT, unless another thread is already doing so.
+	 * In the latter case, that thread repeats the computation once done
+	 */
+	private void requestGvt()
+	{
+		if (gvtRequests.getAndIncrement() != 0)
+			return;
+		int handled;
+		do
+		{
+			handled = gvtRequests.get();
+			computeGvt();
+		}
+		while (gvtRequests.addAndGet(-handled) != 0);
+	}
+	
+	/**
+	 * Commits all remaining history.
+	 * Must only be called once all processes are idle
+	 */
+	void commitAll()
+	{
+		computeGvt();
+		Log.println(Log.Significance.MajorNetworkEvent, this+": Committed "+committedEvents.sum()
+				+" of "+processedEvents.sum()+" executions, "+rolledBackEvents.sum()+" rolled back, "
+				+antiMessages.sum()+" anti-message(s) sent");
+	}
+	
+	/**
+	 * Scheduled message execution.
+	 * Fields other than the immutable ones are owned by the receiving
+	 * process
+	 */
+	private static final class Event implements Comparable<Event>
+	{
+		private static final int NEW = 0, PENDING = 1, PROCESSED = 2, CANCELLED = 3;
+		
+		private final Message message;
+		private final long time;
+		/**
+		 * Causal depth. Orders events caused by another event at the same
+		 * virtual time after their cause
+		 */
+		private final long depth;
+		private final int source;
+		private final long seq;
+		private final Process target;
+		
+		private int state = NEW;
+		private Object stateBefore;
+		private ArrayList<Event> sent;
+		private ArrayList<String> logs;
+		
+		private Event(Message message, long time, long depth, int source, long seq, Process target)
+		{
+			this.message = message;
+			this.time = time;
+			this.depth = depth;
+			this.source = source;
+			this.seq = seq;
+			this.target = target;
+		}
+
+		@Override
+		public int compareTo(Event o)
+		{
+			if (time != o.time)
+				return Long.compare(time, o.time);
+			if (depth != o.depth)
+				return Long.compare(depth, o.depth);
+			if (source != o.source)
+				return Integer.compare(source, o.source);
+			return Long.compare(seq, o.seq);
+		}
+	}
+	
+	/**
+	 * Logical process representing a single actor
+	 */
+	class Process implements Runnable
+	{
+		private final int id;
+		private final ActorControlImpl actor;
+		private final CheckpointableActorLogic logic;
+		private final ConcurrentLinkedQueue<Event> inbox = new ConcurrentLinkedQueue<>(),
+													antiInbox = new ConcurrentLinkedQueue<>();
+		private final AtomicBoolean scheduled = new AtomicBoolean(false);
+		/**
+		 * Unprocessed events. Owned by the process
+		 */
+		private final TreeSet<Event> pending = new TreeSet<>();
+		/**
+		 * Processed, uncommitted events in processing order. Owned by
+		 * the process
+		 */
+		private final ArrayDeque<Event> processed = new ArrayDeque<>();
+		private Event current = null;
+		private Message currentMessage = null;
+		private long sendSeq = 0;
+		private volatile int received = 0;
+		private volatile boolean idle = false, started = false, quit = false;
+		/**
+		 * Set if the next pending event lies beyond the optimism window.
+		 * Cleared and rescheduled once a GVT computation advances the window
+		 */
+		private volatile boolean blocked = false;
+		/**
+		 * Set while pending events are counted as outstanding work.
+		 * Owned by the process
+		 */
+		private boolean holdingWork = false;
+		
+		private Process(int id, ActorControlImpl actor, CheckpointableActorLogic logic)
+		{
+			this.id = id;
+			this.actor = actor;
+			this.logic = logic;
+			//initial execution
+			Event init = new Event(null, actor.getLocalTime(), 0, -1, 0, this);
+			init.state = Event.PENDING;
+			pending.add(init);
+		}
+		
+		@Override
+		public String toString()
+		{
+			return actor.toString();
+		}
+		
+		public void start()
+		{
+			started = true;
+			schedule();
+		}
+		
+		public void quit()
+		{
+			quit = true;
+		}
+		
+		/**
+		 * Checks whether the local process has or may have work left.
+		 * Thread safe
+		 * @return True if busy
+		 */
+		public boolean isBusy()
+		{
+			return scheduled.get() || !idle || !inbox.isEmpty() || !antiInbox.isEmpty();
+		}
+		
+		/**
+		 * Retrieves the number of (anti-)messages taken from the inbox
+		 * @return Received message count
+		 */
+		public int countReceivedMessages()
+		{
+			return received;
+		}
+		
+		/**
+		 * Fetches the message of the currently executed event, once
+		 * @return Message or null
+		 */
+		public Message takeCurrentMessage()
+		{
+			Message rs = currentMessage;
+			currentMessage = null;
+			return rs;
+		}
+		
+		/**
+		 * Appends a message to the execution log once the current event
+		 * is committed
+		 * @param msg Message to log
+		 */
+		public void log(String msg)
+		{
+			if (current == null)
+			{
+				Log.println(Log.Significance.ActorMessage, "{}: {}", actor, msg);
+				return;
+			}
+			if (!Log.isEnabled(Log.Significance.ActorMessage))
+				return;
+			if (current.logs == null)
+				current.logs = new ArrayList<>();
+			current.logs.add(msg);
+		}
+		
+		/**
+		 * Receives a message sent to the local actor.
+		 * Thread safe
+		 * @param m Message to receive
+		 */
+		public void receive(Message m)
+		{
+			Process sender = EXECUTING.get();
+			Event cause = sender != null ? sender.current : null;
+			if (cause == null)
+			{
+				//sent from outside any step: must not race GVT computation
+				activity.increment();
+				stepLock.readLock().lock();
+				try
+				{
+					inbox.add(new Event(m, m.getTime(), 0, -1, externalSeq.incrementAndGet(), this));
+				}
+				finally
+				{
+					stepLock.readLock().unlock();
+				}
+				schedule();
+				return;
+			}
+			Event e = new Event(m, m.getTime(), cause.depth+1, sender.id, sender.sendSeq++, this);
+			if (cause.sent == null)
+				cause.sent = new ArrayList<>();
+			cause.sent.add(e);
+			activity.increment();
+			inbox.add(e);
+			schedule();
+		}
+		
+		private void cancel(Event e)
+		{
+			activity.increment();
+			antiInbox.add(e);
+			schedule();
+		}
+		
+		private void schedule()
+		{
+			if (started && !quit && scheduled.compareAndSet(false, true))
+			{
+				activity.increment();
+				network.getPool().execute(this);
+			}
+		}
+		
+		@Override
+		public void run()
+		{
+			if (!quit)
+			{
+				boolean holdingGvt, nowBlocked = false;
+				stepLock.readLock().lock();
+				try
+				{
+					long drained = drainInbox();
+					long limit = horizon;
+					holdingGvt = drained <= gvt || (!pending.isEmpty() && pending.first().time <= gvt);
+					boolean wait = false;
+					for (int i = 0; i < BATCH && !pending.isEmpty() && !quit; i++)
+					{
+						if (pending.first().time >= limit)
+						{
+							wait = true;
+							break;
+						}
+						processNext();
+					}
+					//changed while stepping, so the next GVT computation sees it
+					if (wait != blocked)
+					{
+						blocked = nowBlocked = wait;
+						blockedProcesses.addAndGet(wait ? 1 : -1);
+					}
+				}
+				finally
+				{
+					stepLock.readLock().unlock();
+				}
+				//only processes at GVT can advance it, but GVT may be outdated
+				//by the time a process starts waiting for it
+				if (nowBlocked || (holdingGvt && blockedProcesses.get() > 0)
+						|| processed.size() > FOSSIL_THRESHOLD)
+					requestGvt();
+			}
+			idle = pending.isEmpty();
+			if (holdingWork == idle)
+			{
+				//pending events outlive the current step if blocked
+				holdingWork = !idle;
+				if (holdingWork)
+					activity.increment();
+				else
+					activity.decrement();
+			}
+			scheduled.set(false);
+			activity.decrement();
+			network.triggerTerminationCheck();
+			if ((!idle && !blocked) || !inbox.isEmpty() || !antiInbox.isEmpty())
+				schedule();
+		}
+		
+		/**
+		 * Moves received events to the pending set, applying rollbacks and
+		 * cancellations as needed
+		 * @return Earliest time of all drained (anti-)messages or
+		 * Long.MAX_VALUE if none
+		 */
+		private long drainInbox()
+		{
+			long min = Long.MAX_VALUE;
+			Event e;
+			while ((e = inbox.poll()) != null)
+			{
+				received++;
+				activity.decrement();
+				min = Math.min(min, e.time);
+				if (e.state == Event.CANCELLED)
+					continue;
+				if (!processed.isEmpty() && e.compareTo(processed.getLast()) < 0)
+					rollback(e, false);
+				e.state = Event.PENDING;
+				pending.add(e);
+			}
+			while ((e = antiInbox.poll()) != null)
+			{
+				received++;
+				activity.decrement();
+				min = Math.min(min, e.time);
+				if (e.state == Event.PROCESSED)
+					rollback(e, true);
+				if (e.state == Event.PENDING)
+					pending.remove(e);
+				e.state = Event.CANCELLED;
+			}
+			return min;
+		}
+		
+		/**
+		 * Undoes all processed events following the specified event
+		 * @param to Event to roll back to
+		 * @param inclusive Set true to also undo the event itself
+		 */
+		private void rollback(Event to, boolean inclusive)
+		{
+			Event restore = null;
+			while (!processed.isEmpty())
+			{
+				Event last = processed.getLast();
+				int c = last.compareTo(to);
+				if (c < 0 || (c == 0 && !inclusive))
+					break;
+				processed.removeLast();
+				if (last.sent != null)
+				{
+					for (Event s : last.sent)
+					{
+						antiMessages.increment();
+						s.target.cancel(s);
+					}
+					last.sent = null;
+				}
+				last.logs = null;
+				last.state = Event.PENDING;
+				pending.add(last);
+				restore = last;
+				rolledBackEvents.increment();
+			}
+			if (restore != null)
+			{
+				logic.restoreState(restore.stateBefore);
+				actor.setLocalTime(processed.isEmpty() ? restore.time : processed.getLast().time);
+			}
+		}
+		
+		private void processNext()
+		{
+			Event e = pending.pollFirst();
+			e.stateBefore = logic.saveState();
+			e.state = Event.PROCESSED;
+			current = e;
+			currentMessage = e.message;
+			actor.setLocalTime(e.time);
+			EXECUTING.set(this);
+			try
+			{
+				logic.execute(actor);
+			}
+			catch (Exception ex)
+			{
+				Log.println(Log.Significance.Error, this+": "+ex);
+			}
+			finally
+			{
+				EXECUTING.set(null);
+				current = null;
+				currentMessage = null;
+			}
+			processed.addLast(e);
+			processedEvents.increment();
+		}
+		
+		/**
+		 * Determines the earliest virtual time this process may still
+		 * roll back to.
+		 * Must only be called while no process is stepping
+		 * @return Earliest unprocessed time or Long.MAX_VALUE
+		 */
+		private long getMinUnprocessedTime()
+		{
+			long t = pending.isEmpty() ? Long.MAX_VALUE : pending.first().time;
+			for (Event e : inbox)
+				t = Math.min(t, e.time);
+			for (Event e : antiInbox)
+				t = Math.min(t, e.time);
+			return t;
+		}
+		
+		/**
+		 * Determines the time of the most recent uncommitted execution.
+		 * Must only be called while no process is stepping
+		 * @return Time or Long.MIN_VALUE if none
+		 */
+		private long getLastProcessedTime()
+		{
+			return processed.isEmpty() ? Long.MIN_VALUE : processed.getLast().time;
+		}
+		
+		/**
+		 * Commits and discards all processed events before the given time.
+		 * Must only be called while no process is stepping
+		 * @param gvt Global virtual time
+		 */
+		private void collectFossils(long gvt)
+		{
+			while (!processed.isEmpty() && processed.getFirst().time < gvt)
+			{
+				Event e = processed.removeFirst();
+				if (e.logs != null)
+					for (String msg : e.logs)
+						Log.println(Log.Significance.ActorMessage, "{}: {}", actor, msg);
+				e.logs = null;
+				e.sent = null;
+				e.stateBefore = null;
+				committedEvents.increment();
+			}
+		}
+	}
+}
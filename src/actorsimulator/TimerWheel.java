@@ -0,0 +1,208 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timer wheel shared by all delayed links of a network.
+ * A single thread advances the wheel in fixed ticks and asks due links to
+ * deliver their pending messages.
+ * Links are inserted intrusively, so scheduling neither allocates nor
+ * requires a thread per link.
+ */
+class TimerWheel implements DeliveryScheduler, Runnable
+{
+	private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final int NUM_BUCKETS = 512;
+	
+	/**
+	 * Bucket list heads. Only accessed by the wheel thread
+	 */
+	private final DelayedLink[] buckets = new DelayedLink[NUM_BUCKETS];
+	/**
+	 * Links scheduled by other threads, not yet inserted into buckets
+	 */
+	private final AtomicReference<DelayedLink> incoming = new AtomicReference<>();
+	private final Network network;
+	private final long startNanos = System.nanoTime();
+	private long currentTick = 0;
+	private int numScheduled = 0;
+	/**
+	 * Set if messages were delivered during the current iteration
+	 */
+	private boolean delivered = false;
+	private volatile boolean quit = false;
+	private volatile Thread thread = null;
+	
+	TimerWheel(Network network)
+	{
+		this.network = network;
+	}
+
+	@Override
+	public String toString()
+	{
+		return network+": TimerWheel";
+	}
+	
+	private synchronized void ensureStarted()
+	{
+		if (thread != null || quit)
+			return;
+		thread = new Thread(this);
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	@Override
+	public long now(ActorControl sender)
+	{
+		return System.nanoTime();
+	}
+
+	@Override
+	public boolean isVirtual()
+	{
+		return false;
+	}
+	
+	@Override
+	public void schedule(DelayedLink link)
+	{
+		if (thread == null)
+			ensureStarted();
+		DelayedLink head;
+		do
+		{
+			head = incoming.get();
+			link.timerNext = head;
+		}
+		while (!incoming.compareAndSet(head, link));
+		if (head == null)
+			LockSupport.unpark(thread);
+	}
+	
+	@Override
+	public void stop()
+	{
+		Thread t;
+		synchronized (this)
+		{
+			quit = true;
+			t = thread;
+		}
+		if (t == null)
+			return;
+		LockSupport.unpark(t);
+		try
+		{
+			t.join();
+		}
+		catch (InterruptedException ex)
+		{
+			Log.println(Log.Significance.Error, this+": "+ex);
+		}
+	}
+	
+	/**
+	 * Determines the first tick at which the given deadline has passed
+	 */
+	private long deadlineTick(long nanoTime)
+	{
+		return (nanoTime - startNanos + TICK_NANOS - 1) / TICK_NANOS;
+	}
+	
+	private void insert(DelayedLink link)
+	{
+		int b = (int)(Math.max(deadlineTick(link.timerDeadline), currentTick) & (NUM_BUCKETS-1));
+		link.timerNext = buckets[b];
+		buckets[b] = link;
+		numScheduled++;
+	}
+	
+	private void transferIncoming()
+	{
+		DelayedLink link = incoming.getAndSet(null);
+		while (link != null)
+		{
+			DelayedLink next = link.timerNext;
+			insert(link);
+			link = next;
+		}
+	}
+	
+	private void expire(int bucket, long now)
+	{
+		DelayedLink link = buckets[bucket];
+		DelayedLink keep = null;
+		buckets[bucket] = null;
+		while (link != null)
+		{
+			DelayedLink next = link.timerNext;
+			if (link.timerDeadline - now <= 0)
+			{
+				numScheduled--;
+				delivered = true;
+				if (link.deliverDue(now))
+					insert(link);
+			}
+			else
+			{
+				link.timerNext = keep;
+				keep = link;
+			}
+			link = next;
+		}
+		while (keep != null)
+		{
+			DelayedLink next = keep.timerNext;
+			keep.timerNext = buckets[bucket];
+			buckets[bucket] = keep;
+			keep = next;
+		}
+	}
+
+	@Override
+	public void run()
+	{
+		while (!quit)
+		{
+			transferIncoming();
+			long now = System.nanoTime();
+			long nowTick = (now - startNanos) / TICK_NANOS;
+			while (currentTick <= nowTick && numScheduled > 0)
+			{
+				expire((int)(currentTick & (NUM_BUCKETS-1)), now);
+				currentTick++;
+			}
+			currentTick = Math.max(currentTick, nowTick+1);
+			if (delivered)
+			{
+				//delivered messages stop counting as outstanding work only
+				//after their receivers may have turned passive again
+				delivered = false;
+				network.triggerTerminationCheck();
+			}
+			if (numScheduled > 0)
+				LockSupport.parkNanos(this, startNanos + currentTick * TICK_NANOS - System.nanoTime());
+			else if (incoming.get() == null)
+				LockSupport.park(this);
+		}
+	}
+}
@@ -0,0 +1,236 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Binary event trace of a network, recorded into a memory-mapped file.
+ * Each event is a fixed-size record. The file is divided into small
+ * segments, which are claimed by recording threads one at a time and then
+ * filled without synchronization. A thread claims its next segment once the
+ * current one is full. Records are thus ordered by time within each
+ * segment, but not across segments.
+ * Each recording thread holds at most one partially filled segment, so a
+ * thread-per-actor network of n actors leaves up to n * SEGMENT_SIZE of the
+ * capacity unused.
+ * The first segment holds the file header.
+ * Events beyond the file capacity are dropped and counted.
+ * Recording costs a clock read and a 24 byte write per event. This is
+ * negligible for logic doing microseconds of work per message, but can
+ * double the run time of networks that merely forward messages. Such
+ * networks should be traced with a sample interval, which records every
+ * nth message sent or delivered along each link, and every nth activation
+ * of each actor.
+ * See TraceAnalyzer for the offline evaluation.
+ */
+final class Trace
+{
+	public static final int MAGIC = 0x41535452;	//"ASTR"
+	public static final int VERSION = 2;
+	/**
+	 * Record layout: long nanoTime, int type, int actor, int peer, int count
+	 */
+	public static final int RECORD_SIZE = 24;
+	/**
+	 * Size of the file regions claimed by recording threads (48 KB)
+	 */
+	public static final int SEGMENT_SIZE = RECORD_SIZE << 11;
+	/**
+	 * Size of individually mapped file regions. Multiple of SEGMENT_SIZE
+	 */
+	static final int CHUNK_SIZE = SEGMENT_SIZE * 1024;
+	
+	/**
+	 * Message sent. Actor is the sender, peer the receiver, count the number
+	 * of messages
+	 */
+	public static final int SEND = 1;
+	/**
+	 * Message delivered to the receiver's mailbox. Actor is the receiver,
+	 * peer the sender, count the number of messages
+	 */
+	public static final int DELIVER = 2;
+	/**
+	 * Actor logic started executing, or returned from a blocking receive
+	 */
+	public static final int ACTIVATE = 3;
+	/**
+	 * Actor logic returned, or started a blocking receive
+	 */
+	public static final int PASSIVE = 4;
+	/**
+	 * Link created. Actor is the source, peer the destination
+	 */
+	public static final int LINK = 5;
+	/**
+	 * Message sent and delivered at once, as by instant links. Counts as both
+	 * SEND and DELIVER. Actor is the sender, peer the receiver
+	 */
+	public static final int INSTANT = 6;
+	
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final int maxSegments;
+	private final MappedByteBuffer[] chunks;
+	private final AtomicInteger nextSegment = new AtomicInteger(1);
+	private final LongAdder dropped = new LongAdder();
+	private final int sampleInterval;
+	private final long startNanos = System.nanoTime();
+	private volatile boolean closed = false;
+	/**
+	 * Segment currently filled by each recording thread
+	 */
+	private final ThreadLocal<ByteBuffer> segments = new ThreadLocal<>();
+	
+	/**
+	 * Creates a new trace file, replacing any existing file
+	 * @param path File to write
+	 * @param capacity Maximum file size in bytes. At least two segments
+	 * @param sampleInterval Record every sampleInterval-th event of each
+	 * link and actor. At least 1
+	 * @throws IOException if the file could not be created
+	 */
+	Trace(File path, long capacity, int sampleInterval) throws IOException
+	{
+		if (sampleInterval < 1)
+			throw new IllegalArgumentException("Trace sample interval must be positive: "+sampleInterval);
+		this.sampleInterval = sampleInterval;
+		maxSegments = (int)Math.min(Integer.MAX_VALUE - 1, capacity / SEGMENT_SIZE);
+		if (maxSegments < 2)
+			throw new IllegalArgumentException("Trace capacity too small: "+capacity);
+		file = new RandomAccessFile(path, "rw");
+		file.setLength(0);
+		file.setLength((long)maxSegments * SEGMENT_SIZE);
+		channel = file.getChannel();
+		chunks = new MappedByteBuffer[(int)(((long)maxSegments * SEGMENT_SIZE + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+		writeHeader(0);
+	}
+	
+	private void writeHeader(int segmentCount)
+	{
+		ByteBuffer h = segment(0);
+		h.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putInt(SEGMENT_SIZE)
+			.putLong(startNanos).putLong(System.currentTimeMillis())
+			.putInt(segmentCount).putLong(dropped.sum()).putInt(sampleInterval);
+	}
+	
+	/**
+	 * Fetches the number of events per link or actor of which one is recorded
+	 * @return Sample interval. 1 if all events are recorded
+	 */
+	int getSampleInterval()
+	{
+		return sampleInterval;
+	}
+	
+	/**
+	 * Fetches a writable view of a segment, mapping its chunk if necessary
+	 */
+	private ByteBuffer segment(int index)
+	{
+		long offset = (long)index * SEGMENT_SIZE;
+		int c = (int)(offset / CHUNK_SIZE);
+		MappedByteBuffer chunk;
+		synchronized (chunks)
+		{
+			chunk = chunks[c];
+			if (chunk == null)
+			{
+				long at = (long)c * CHUNK_SIZE;
+				try
+				{
+					chunk = channel.map(FileChannel.MapMode.READ_WRITE, at,
+							Math.min(CHUNK_SIZE, (long)maxSegments * SEGMENT_SIZE - at));
+				}
+				catch (IOException ex)
+				{
+					throw new IllegalStateException("Failed to map trace file", ex);
+				}
+				chunks[c] = chunk;
+			}
+		}
+		ByteBuffer rs = chunk.duplicate();
+		int from = (int)(offset - (long)c * CHUNK_SIZE);
+		rs.limit(from + SEGMENT_SIZE).position(from);
+		return rs.slice().order(ByteOrder.nativeOrder());
+	}
+	
+	/**
+	 * Records an event on behalf of the current thread
+	 * @param type Event type
+	 * @param actor Primary actor index
+	 * @param peer Secondary actor index, or 0
+	 * @param count Number of messages, or 0
+	 */
+	void record(int type, int actor, int peer, int count)
+	{
+		if (closed)
+			return;
+		ByteBuffer seg = segments.get();
+		if (seg == null || !seg.hasRemaining())
+		{
+			int index = nextSegment.getAndIncrement();
+			if (index >= maxSegments)
+			{
+				nextSegment.set(maxSegments);
+				dropped.increment();
+				return;
+			}
+			seg = segment(index);
+			segments.set(seg);
+		}
+		seg.putLong(System.nanoTime()).putInt(type).putInt(actor).putInt(peer).putInt(count);
+	}
+	
+	/**
+	 * Stops recording and writes the final header.
+	 * The file is not truncated, since other threads may still be writing
+	 * into their mapped segments. Unclaimed segments remain sparse on most
+	 * file systems. Records written concurrently may be lost
+	 * @throws IOException if the file could not be finalized
+	 */
+	void close() throws IOException
+	{
+		closed = true;
+		int used = Math.min(nextSegment.getAndSet(maxSegments), maxSegments);
+		writeHeader(used);
+		synchronized (chunks)
+		{
+			for (MappedByteBuffer chunk : chunks)
+				if (chunk != null)
+					chunk.force();
+		}
+		file.close();
+	}
+	
+	/**
+	 * Retrieves the number of events dropped because the file was full
+	 * @return Dropped events
+	 */
+	long countDropped()
+	{
+		return dropped.sum();
+	}
+}
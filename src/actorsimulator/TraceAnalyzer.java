@@ -0,0 +1,461 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/**
+ * Offline evaluation of binary trace files written by Network.startTrace().
+ * Streams all segments merged by time, and reports per-actor message counts
+ * and busy times, the send-to-delivery latency distribution, and an
+ * approximation of the critical path.
+ * Sends are matched to deliveries in FIFO order per link.
+ * The critical path follows the longest chain of actor busy time and
+ * message transit time. Idle time is not counted, so its length is a lower
+ * bound for the run time of the traced program on unlimited cores.
+ * Counts and busy times of sampled traces are extrapolated by the sample
+ * interval, and no critical path is determined for them.
+ * Usage: TraceAnalyzer &lt;file&gt; [maxActorsListed]
+ */
+public class TraceAnalyzer
+{
+	private final File path;
+	private ActorStats[] actors = new ActorStats[64];
+	private final HashMap<Long,LinkState> links = new HashMap<>();
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private long startNanos, firstEvent = Long.MAX_VALUE, lastEvent = Long.MIN_VALUE;
+	private long events, droppedEvents, linkCount;
+	private int segmentCount, sampleInterval = 1;
+	
+	/**
+	 * Creates a new analyzer for the given file. Call run() to evaluate
+	 * @param path Trace file
+	 */
+	public TraceAnalyzer(File path)
+	{
+		this.path = path;
+	}
+	
+	/**
+	 * @param args File name, optionally followed by the maximum number of actors to list
+	 * @throws IOException if the file could not be read
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 1)
+		{
+			System.err.println("Usage: TraceAnalyzer <file> [maxActorsListed]");
+			System.exit(1);
+		}
+		TraceAnalyzer a = new TraceAnalyzer(new File(args[0]));
+		a.run();
+		a.report(System.out, args.length > 1 ? Integer.parseInt(args[1]) : 20);
+	}
+	
+	/**
+	 * Reads and evaluates the entire file
+	 * @throws IOException if the file could not be read or is not a trace
+	 */
+	public void run() throws IOException
+	{
+		try (RandomAccessFile file = new RandomAccessFile(path, "r"))
+		{
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
+			if (size < Trace.SEGMENT_SIZE)
+				throw new IOException("Not a trace file: "+path);
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, 48);
+			header.order(ByteOrder.BIG_ENDIAN);
+			if (header.getInt(0) != Trace.MAGIC)
+			{
+				header.order(ByteOrder.LITTLE_ENDIAN);
+				if (header.getInt(0) != Trace.MAGIC)
+					throw new IOException("Not a trace file: "+path);
+			}
+			ByteOrder order = header.order();
+			if (header.getInt(4) != Trace.VERSION
+				|| header.getInt(8) != Trace.RECORD_SIZE
+				|| header.getInt(12) != Trace.SEGMENT_SIZE)
+				throw new IOException("Unsupported trace format: "+path);
+			startNanos = header.getLong(16);
+			segmentCount = header.getInt(32);
+			droppedEvents = header.getLong(36);
+			sampleInterval = Math.max(1, header.getInt(44));	//0 if written before sampling
+			int available = (int)Math.min(Integer.MAX_VALUE, size / Trace.SEGMENT_SIZE);
+			if (segmentCount <= 0 || segmentCount > available)
+				segmentCount = available;	//not closed properly: scan everything
+			
+			MappedByteBuffer[] chunks = new MappedByteBuffer[(int)(((long)segmentCount * Trace.SEGMENT_SIZE + Trace.CHUNK_SIZE - 1) / Trace.CHUNK_SIZE)];
+			PriorityQueue<Cursor> queue = new PriorityQueue<>();
+			for (int s = 1; s < segmentCount; s++)
+			{
+				long offset = (long)s * Trace.SEGMENT_SIZE;
+				int c = (int)(offset / Trace.CHUNK_SIZE);
+				if (chunks[c] == null)
+				{
+					long at = (long)c * Trace.CHUNK_SIZE;
+					chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, at,
+							Math.min(Trace.CHUNK_SIZE, (long)segmentCount * Trace.SEGMENT_SIZE - at));
+				}
+				ByteBuffer seg = chunks[c].duplicate();
+				int from = (int)(offset - (long)c * Trace.CHUNK_SIZE);
+				seg.limit(from + Trace.SEGMENT_SIZE).position(from);
+				Cursor cursor = new Cursor(seg.slice().order(order), s);
+				if (cursor.advance())
+					queue.add(cursor);
+			}
+			while (!queue.isEmpty())
+			{
+				Cursor c = queue.poll();
+				process(c.time, c.type, c.actor, c.peer, c.count);
+				if (c.advance())
+					queue.add(c);
+			}
+		}
+		for (ActorStats a : actors)
+			if (a != null && a.activeSince != Long.MIN_VALUE)
+				passivate(a, lastEvent);	//still running at end of trace
+	}
+	
+	private ActorStats actor(int index)
+	{
+		if (index < 0)
+			throw new IllegalArgumentException("Corrupt trace: actor index "+index);
+		if (index >= actors.length)
+			actors = Arrays.copyOf(actors, Math.max(index + 1, actors.length * 2));
+		ActorStats rs = actors[index];
+		if (rs == null)
+			actors[index] = rs = new ActorStats(index);
+		return rs;
+	}
+	
+	private LinkState link(int source, int destination)
+	{
+		Long key = ((long)source << 32) | (destination & 0xFFFFFFFFL);
+		LinkState rs = links.get(key);
+		if (rs == null)
+			links.put(key, rs = new LinkState());
+		return rs;
+	}
+	
+	private void process(long time, int type, int actor, int peer, int count)
+	{
+		events++;
+		firstEvent = Math.min(firstEvent, time);
+		lastEvent = Math.max(lastEvent, time);
+		switch (type)
+		{
+			case Trace.SEND:
+			{
+				ActorStats a = actor(actor);
+				a.sent += count;
+				long value = a.pathAt(time);
+				LinkState l = link(actor, peer);
+				for (int i = 0; i < count; i++)
+				{
+					if (l.deliveries.isEmpty())
+					{
+						l.sends.add(time);
+						l.sends.add(value);
+						l.sends.add(a.hops);
+					}
+					else
+						delivered(actor(peer), l.deliveries.poll(), time, value, a.hops, 1);
+				}
+				break;
+			}
+			case Trace.DELIVER:
+			{
+				ActorStats a = actor(actor);
+				a.received += count;
+				LinkState l = link(peer, actor);
+				for (int i = 0; i < count; i++)
+				{
+					if (l.sends.isEmpty())
+					{
+						//recorded out of order across threads. Matched by the next send
+						l.deliveries.add(time);
+					}
+					else
+						delivered(a, time, l.sends.poll(), l.sends.poll(), l.sends.poll(), 1);
+				}
+				break;
+			}
+			case Trace.INSTANT:
+			{
+				ActorStats a = actor(actor), b = actor(peer);
+				a.sent += count;
+				b.received += count;
+				delivered(b, time, time, a.pathAt(time), a.hops, count);
+				break;
+			}
+			case Trace.ACTIVATE:
+			{
+				ActorStats a = actor(actor);
+				if (a.activeSince != Long.MIN_VALUE)
+					break;
+				a.activations++;
+				a.activeSince = time;
+				if (a.incoming > a.path)
+				{
+					a.path = a.incoming;
+					a.hops = a.incomingHops;
+				}
+				break;
+			}
+			case Trace.PASSIVE:
+			{
+				ActorStats a = actor(actor);
+				if (a.activeSince != Long.MIN_VALUE)
+					passivate(a, time);
+				break;
+			}
+			case Trace.LINK:
+				actor(actor);
+				actor(peer);
+				linkCount++;
+				break;
+			default:
+				throw new IllegalArgumentException("Corrupt trace: event type "+type);
+		}
+	}
+	
+	private void passivate(ActorStats a, long time)
+	{
+		a.busy += time - a.activeSince;
+		a.path += time - a.activeSince;
+		a.activeSince = Long.MIN_VALUE;
+	}
+	
+	private void delivered(ActorStats receiver, long deliverTime, long sendTime, long pathAtSend, long hops, int count)
+	{
+		if (deliverTime < sendTime)
+			deliverTime = sendTime;	//clock skew between cores
+		long transit = deliverTime - sendTime;
+		latency.record(transit, count);
+		long path = pathAtSend + transit;
+		if (path > receiver.incoming)
+		{
+			receiver.incoming = path;
+			receiver.incomingHops = hops + 1;
+		}
+	}
+	
+	/**
+	 * Prints the evaluation result
+	 * @param out Stream to print to
+	 * @param maxActors Maximum number of actors to list individually, by descending busy time
+	 */
+	public void report(PrintStream out, int maxActors)
+	{
+		ArrayList<ActorStats> list = new ArrayList<>();
+		for (ActorStats a : actors)
+			if (a != null)
+				list.add(a);
+		long span = events > 0 ? lastEvent - firstEvent : 0;
+		out.println("Trace "+path+": "+events+" event(s) in "+(segmentCount-1)+" segment(s), "
+				+droppedEvents+" dropped, "+list.size()+" actor(s), "+linkCount+" link(s) created");
+		if (sampleInterval > 1)
+			out.println("Sampled every "+sampleInterval+" event(s) per link and actor. Counts and busy times are extrapolated");
+		out.println("Span: "+ms(span)+" ms, starting "+ms(events > 0 ? firstEvent - startNanos : 0)+" ms after trace start");
+		
+		long sent = 0, received = 0, pending = 0, orphaned = 0;
+		for (ActorStats a : list)
+		{
+			sent += a.sent * sampleInterval;
+			received += a.received * sampleInterval;
+		}
+		for (LinkState l : links.values())
+		{
+			pending += l.sends.size() / 3 * sampleInterval;
+			orphaned += l.deliveries.size() * sampleInterval;
+		}
+		out.println("Messages: "+sent+" sent, "+received+" delivered, "+pending+" undelivered at end of trace"
+				+(orphaned > 0 ? ", "+orphaned+" delivered without recorded send" : ""));
+		
+		out.println("Latency (send to mailbox): "+latency.getCount()+" sample(s), mean "+us(latency.getMean())
+				+" us, p50 "+us(latency.getPercentile(0.5))+" us, p90 "+us(latency.getPercentile(0.9))
+				+" us, p99 "+us(latency.getPercentile(0.99))+" us, max "+us(latency.getMax())+" us");
+		
+		ActorStats end = null;
+		long critical = 0;
+		for (ActorStats a : list)
+		{
+			long p = Math.max(a.path, a.incoming);
+			if (end == null || p > critical)
+			{
+				critical = p;
+				end = a;
+			}
+		}
+		if (sampleInterval > 1)
+			out.println("Critical path: not available for sampled traces");
+		else if (end != null)
+			out.println("Critical path: "+ms(critical)+" ms ("+(span > 0 ? 100 * critical / span : 0)
+					+"% of span), "+(end.incoming > end.path ? end.incomingHops : end.hops)+" hop(s), ending at A"+end.index);
+		
+		list.sort((a,b) -> Long.compare(b.busy, a.busy));
+		out.println();
+		out.println("Actor\tsent\treceived\tactivations\tbusy ms");
+		for (int i = 0; i < Math.min(maxActors, list.size()); i++)
+		{
+			ActorStats a = list.get(i);
+			out.println("A"+a.index+"\t"+a.sent*sampleInterval+"\t"+a.received*sampleInterval
+					+"\t"+a.activations*sampleInterval+"\t"+ms(a.busy*sampleInterval));
+		}
+		if (list.size() > maxActors)
+			out.println("("+(list.size()-maxActors)+" more)");
+	}
+	
+	private static String ms(long nanos)
+	{
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+	
+	private static String us(double nanos)
+	{
+		return String.format(Locale.ROOT, "%.1f", nanos / 1e3);
+	}
+	
+	/**
+	 * Read position within one segment
+	 */
+	private static class Cursor implements Comparable<Cursor>
+	{
+		private final ByteBuffer data;
+		private final int segment;
+		long time;
+		int type, actor, peer, count;
+		
+		Cursor(ByteBuffer data, int segment)
+		{
+			this.data = data;
+			this.segment = segment;
+		}
+		
+		/**
+		 * Reads the next record
+		 * @return false if the segment is exhausted
+		 */
+		boolean advance()
+		{
+			if (data.remaining() < Trace.RECORD_SIZE)
+				return false;
+			time = data.getLong();
+			type = data.getInt();
+			actor = data.getInt();
+			peer = data.getInt();
+			count = data.getInt();
+			return type != 0;	//zero-filled remainder of a partially written segment
+		}
+
+		@Override
+		public int compareTo(Cursor o)
+		{
+			if (time != o.time)
+				return Long.compare(time, o.time);
+			if (type != o.type)
+				return Integer.compare(type, o.type);	//sends before deliveries
+			return Integer.compare(segment, o.segment);
+		}
+	}
+	
+	private static class ActorStats
+	{
+		final int index;
+		long sent, received, activations, busy;
+		long activeSince = Long.MIN_VALUE;
+		/**
+		 * Critical path length and hop count up to the last activation or passivation
+		 */
+		long path, hops;
+		/**
+		 * Longest path of any message delivered so far
+		 */
+		long incoming, incomingHops;
+		
+		ActorStats(int index)
+		{
+			this.index = index;
+		}
+		
+		long pathAt(long time)
+		{
+			return activeSince == Long.MIN_VALUE ? path : path + time - activeSince;
+		}
+	}
+	
+	private static class LinkState
+	{
+		/**
+		 * Unmatched sends as (time, path, hops) triplets
+		 */
+		final LongFifo sends = new LongFifo();
+		/**
+		 * Delivery times recorded before their send
+		 */
+		final LongFifo deliveries = new LongFifo();
+	}
+	
+	private static class LongFifo
+	{
+		private long[] data = new long[16];
+		private int head, size;
+		
+		boolean isEmpty()
+		{
+			return size == 0;
+		}
+		
+		int size()
+		{
+			return size;
+		}
+		
+		void add(long value)
+		{
+			if (size == data.length)
+			{
+				long[] grown = new long[data.length * 2];
+				for (int i = 0; i < size; i++)
+					grown[i] = data[(head + i) & (data.length - 1)];
+				data = grown;
+				head = 0;
+			}
+			data[(head + size++) & (data.length - 1)] = value;
+		}
+		
+		long poll()
+		{
+			long rs = data[head];
+			head = (head + 1) & (data.length - 1);
+			size--;
+			return rs;
+		}
+	}
+}
@@ -0,0 +1,279 @@
+/* 
+ * Copyright 2018 IronFox.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actorsimulator;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot of the messages and bytes sent between all pairs of actors that
+ * have exchanged any.
+ * Only non-zero entries are stored, one per link. Actors are identified by
+ * their creation index, as also used by traces, and their name at the
+ * time of the snapshot.
+ * Counters of different links are read one after the other while senders
+ * keep running, so a snapshot of a running network is not atomic
+ */
+public final class TrafficMatrix
+{
+	private static final int MAGIC = 0x41544D58;	//"ATMX"
+	private static final int VERSION = 1;
+	
+	/**
+	 * Traffic along one directed actor pair
+	 */
+	public static final class Entry
+	{
+		private final int source, destination;
+		private final String sourceName, destinationName;
+		private final long messages, bytes;
+		
+		public Entry(int source, String sourceName, int destination, String destinationName, long messages, long bytes)
+		{
+			this.source = source;
+			this.sourceName = sourceName;
+			this.destination = destination;
+			this.destinationName = destinationName;
+			this.messages = messages;
+			this.bytes = bytes;
+		}
+		
+		/**
+		 * @return Creation index of the sending actor
+		 */
+		public int getSource()
+		{
+			return source;
+		}
+		
+		public String getSourceName()
+		{
+			return sourceName;
+		}
+		
+		/**
+		 * @return Creation index of the receiving actor
+		 */
+		public int getDestination()
+		{
+			return destination;
+		}
+		
+		public String getDestinationName()
+		{
+			return destinationName;
+		}
+		
+		public long getMessages()
+		{
+			return messages;
+		}
+		
+		/**
+		 * @return Payload bytes, as determined by the network's message sizer
+		 */
+		public long getBytes()
+		{
+			return bytes;
+		}
+	}
+	
+	private final long timestamp;
+	private final List<Entry> entries;
+	
+	public TrafficMatrix(long timestamp, List<Entry> entries)
+	{
+		this.timestamp = timestamp;
+		this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+	}
+	
+	/**
+	 * Fetches the wall clock time the snapshot was taken at
+	 * @return Milliseconds since the epoch
+	 */
+	public long getTimestamp()
+	{
+		return timestamp;
+	}
+	
+	/**
+	 * Fetches all non-zero entries
+	 * @return Unmodifiable list of entries
+	 */
+	public List<Entry> getEntries()
+	{
+		return entries;
+	}
+	
+	public long getTotalMessages()
+	{
+		long rs = 0;
+		for (Entry e : entries)
+			rs += e.messages;
+		return rs;
+	}
+	
+	public long getTotalBytes()
+	{
+		long rs = 0;
+		for (Entry e : entries)
+			rs += e.bytes;
+		return rs;
+	}
+	
+	/**
+	 * Estimates the payload size of a message for traffic accounting.
+	 * Default message sizer of all networks
+	 * @param message Message content. May be null
+	 * @return Length of byte arrays, remaining bytes of byte buffers, length
+	 * of off-heap payloads, and 0 for all other content
+	 */
+	public static long payloadSize(Object message)
+	{
+		if (message instanceof OffHeapPayload)
+			return ((OffHeapPayload)message).length();
+		if (message instanceof byte[])
+			return ((byte[])message).length;
+		if (message instanceof ByteBuffer)
+			return ((ByteBuffer)message).remaining();
+		return 0;
+	}
+	
+	/**
+	 * Writes the local matrix as CSV, one line per entry
+	 * @param out Target to write to
+	 * @throws IOException if writing failed
+	 */
+	public void writeCsv(Appendable out) throws IOException
+	{
+		out.append("source,source_name,destination,destination_name,messages,bytes\n");
+		for (Entry e : entries)
+			out.append(Integer.toString(e.source)).append(',').append(csv(e.sourceName)).append(',')
+				.append(Integer.toString(e.destination)).append(',').append(csv(e.destinationName)).append(',')
+				.append(Long.toString(e.messages)).append(',').append(Long.toString(e.bytes)).append('\n');
+	}
+	
+	private static String csv(String s)
+	{
+		if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0)
+			return s;
+		return '"'+s.replace("\"", "\"\"")+'"';
+	}
+	
+	/**
+	 * Writes the local matrix in binary form.
+	 * The format starts with magic "ATMX", version, and timestamp, followed
+	 * by a table of actor indices and names, and the entries as actor indices
+	 * with variable-length message and byte counts
+	 * @param stream Stream to write to. Not closed
+	 * @throws IOException if writing failed
+	 */
+	public void writeBinary(OutputStream stream) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(stream);
+		Map<Integer, String> names = new HashMap<>();
+		for (Entry e : entries)
+		{
+			names.put(e.source, e.sourceName);
+			names.put(e.destination, e.destinationName);
+		}
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(timestamp);
+		writeVarLong(out, names.size());
+		for (Map.Entry<Integer, String> n : names.entrySet())
+		{
+			writeVarLong(out, n.getKey());
+			out.writeUTF(n.getValue());
+		}
+		writeVarLong(out, entries.size());
+		for (Entry e : entries)
+		{
+			writeVarLong(out, e.source);
+			writeVarLong(out, e.destination);
+			writeVarLong(out, e.messages);
+			writeVarLong(out, e.bytes);
+		}
+		out.flush();
+	}
+	
+	/**
+	 * Reads a matrix written by writeBinary()
+	 * @param stream Stream to read from. Not closed
+	 * @return Read matrix
+	 * @throws IOException if reading failed or the data is not a traffic
+	 * matrix
+	 */
+	public static TrafficMatrix readBinary(InputStream stream) throws IOException
+	{
+		DataInputStream in = new DataInputStream(stream);
+		if (in.readInt() != MAGIC)
+			throw new IOException("Not a traffic matrix");
+		int version = in.readInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported traffic matrix version "+version);
+		long timestamp = in.readLong();
+		Map<Integer, String> names = new HashMap<>();
+		for (long i = readVarLong(in); i > 0; i--)
+		{
+			int index = (int)readVarLong(in);
+			names.put(index, in.readUTF());
+		}
+		long count = readVarLong(in);
+		ArrayList<Entry> entries = new ArrayList<>();
+		for (long i = 0; i < count; i++)
+		{
+			int source = (int)readVarLong(in);
+			int destination = (int)readVarLong(in);
+			long messages = readVarLong(in);
+			long bytes = readVarLong(in);
+			entries.add(new Entry(source, names.get(source), destination, names.get(destination), messages, bytes));
+		}
+		return new TrafficMatrix(timestamp, entries);
+	}
+	
+	private static void writeVarLong(DataOutputStream out, long value) throws IOException
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			out.writeByte((int)(value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int)value);
+	}
+	
+	private static long readVarLong(DataInputStream in) throws IOException
+	{
+		long rs = 0;
+		for (int shift = 0; shift < 64; shift += 7)
+		{
+			int b = in.readUnsignedByte();
+			rs |= (long)(b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return rs;
+		}
+		throw new IOException("Malformed variable-length number");
+	}
+}
@@ -0,0 +1,93 @@
+package actorsimulator;
+
+import java.util.PriorityQueue;
+
+/**
+ * Discrete-event delivery scheduler.
+ * Maintains a virtual clock which does not advance on its own.
+ * The network advances it to the next pending delivery once all actors are
+ * passive.
+ * Each actor acts as a logical process with its own local clock, which is
+ * advanced by the delivery times of the messages it retrieves.
+ */
+class VirtualClock implements DeliveryScheduler
+{
+	/**
+	 * Scheduled links by deadline of their first pending message.
+	 * Guarded by this
+	 */
+	private final PriorityQueue<DelayedLink> scheduled = new PriorityQueue<>(
+			(a,b) -> Long.compare(a.timerDeadline, b.timerDeadline));
+	private volatile long now = 0;
+
+	/**
+	 * Fetches the global virtual time.
+	 * Corresponds to the start of the most recent delivery window
+	 * @return Virtual time in nanoseconds
+	 */
+	public long now()
+	{
+		return now;
+	}
+	
+	@Override
+	public long now(ActorControl sender)
+	{
+		return sender.getLocalTime();
+	}
+
+	@Override
+	public boolean isVirtual()
+	{
+		return true;
+	}
+
+	@Override
+	public synchronized void schedule(DelayedLink link)
+	{
+		scheduled.add(link);
+	}
+
+	@Override
+	public synchronized void stop()
+	{
+		scheduled.clear();
+	}
+	
+	/**
+	 * Advances the clock to the earliest scheduled delivery T, and delivers
+	 * all messages due before T+lookahead in order of their delivery time.
+	 * Must only be called by one thread at a time, while all actors are
+	 * passive.
+	 * Any message sent as a consequence of these deliveries must be due no
+	 * earlier than T+lookahead
+	 * @param lookahead Delivery window size in nanoseconds.
+	 * 0 to only deliver messages due at exactly T
+	 * @return True if messages were delivered, false if none were scheduled
+	 */
+	public boolean advance(long lookahead)
+	{
+		long end;
+		synchronized (this)
+		{
+			DelayedLink first = scheduled.peek();
+			if (first == null)
+				return false;
+			now = first.timerDeadline;
+			end = now + Math.max(lookahead, 1);
+		}
+		while (true)
+		{
+			DelayedLink link;
+			synchronized (this)
+			{
+				link = scheduled.peek();
+				if (link == null || link.timerDeadline - end >= 0)
+					return true;
+				scheduled.poll();
+			}
+			if (link.deliverNext())
+				schedule(link);
+		}
+	}
+}